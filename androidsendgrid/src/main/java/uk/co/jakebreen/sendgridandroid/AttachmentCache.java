@@ -0,0 +1,373 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.co.jakebreen.sendgridandroid.SendGridMail.Attachment;
+
+import static uk.co.jakebreen.sendgridandroid.FileEncoder.encodeFileToBase64;
+
+/**
+ * Keeps the base64 encoding of attachments so a file attached to many mails is only
+ * read and encoded once, set with {@link SendGrid.Builder#setAttachmentCache(AttachmentCache)}.
+ *
+ * Encodings are keyed by the SHA-256 of the file content, so copies of a file share
+ * one entry. A file is only hashed again when its path, size or modification time
+ * changed. Encodings are held in memory up to a byte limit, least recently used
+ * first out, and optionally in a directory that survives restarts, from which they
+ * are streamed without being loaded into memory.
+ */
+public class AttachmentCache {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_FINGERPRINTS = 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final long maxMemoryBytes;
+    private final File directory;
+    private final long maxDiskBytes;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, String> fingerprints = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_FINGERPRINTS;
+        }
+    };
+    // Sources handed out for disk entries, which trimming leaves in place until the
+    // bodies holding them are gone.
+    private final Set<FileSource> fileSources = Collections.newSetFromMap(new WeakHashMap<FileSource, Boolean>());
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private AttachmentCache(Builder builder) {
+        this.maxMemoryBytes = builder.maxMemoryBytes;
+        this.directory = builder.directory;
+        this.maxDiskBytes = builder.maxDiskBytes;
+        if (directory != null)
+            openDirectory();
+    }
+
+    /**
+     * Returns a {@link Builder} for a cache holding up to 4 MB of encodings in memory
+     * and none on disk.
+     *
+     * @return the builder for an attachment cache
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The number of attachments served from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of attachments that had to be read and encoded.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The bytes of encoded content currently held in memory.
+     *
+     * @return the memory size in bytes
+     */
+    public synchronized long getMemorySize() {
+        return memoryBytes;
+    }
+
+    /**
+     * Returns the content of the attachment, encoding and storing it first if it is not
+     * cached yet. An attachment too large for either tier, or one streamed from a
+     * content uri, is encoded as it is written.
+     */
+    JsonWriter.Base64Source get(Attachment attachment) throws IOException {
+        final File file = attachment.getFile();
+        if (file == null)
+            return attachment;
+        final String key = getContentKey(attachment);
+
+        final byte[] bytes;
+        synchronized (this) {
+            bytes = memory.get(key);
+        }
+        if (bytes != null) {
+            hitCount.incrementAndGet();
+            return new BytesSource(bytes);
+        }
+
+        final File cached = directory != null ? new File(directory, key) : null;
+        final FileSource hit = cached != null ? useDisk(cached) : null;
+        if (hit != null) {
+            hitCount.incrementAndGet();
+            return hit;
+        }
+
+        missCount.incrementAndGet();
+        final long encodedLength = attachment.getEncodedLength();
+        if (encodedLength <= maxMemoryBytes && encodedLength <= Integer.MAX_VALUE) {
+            final byte[] encoded = encodeFileToBase64(file);
+            putMemory(key, encoded);
+            if (cached != null && encoded.length <= maxDiskBytes)
+                writeDisk(cached, encoded.length, output -> output.write(encoded));
+            return new BytesSource(encoded);
+        }
+        if (cached != null && encodedLength <= maxDiskBytes) {
+            writeDisk(cached, encodedLength, output -> encodeFileToBase64(file, output));
+            final FileSource source = useDisk(cached);
+            if (source != null)
+                return source;
+        }
+        return attachment;
+    }
+
+    /**
+     * Returns a source for the disk entry if it exists, kept from being trimmed while
+     * the source is in use so its length stays the one the body was measured with.
+     */
+    private synchronized FileSource useDisk(File cached) {
+        if (!cached.isFile())
+            return null;
+        cached.setLastModified(System.currentTimeMillis());
+        final FileSource source = new FileSource(cached);
+        fileSources.add(source);
+        return source;
+    }
+
+    private String getContentKey(Attachment attachment) throws IOException {
+        final String fingerprint = attachment.getFingerprint();
+        synchronized (this) {
+            final String key = fingerprints.get(fingerprint);
+            if (key != null)
+                return key;
+        }
+        final String key = sha256(attachment.getFile());
+        synchronized (this) {
+            fingerprints.put(fingerprint, key);
+        }
+        return key;
+    }
+
+    private synchronized void putMemory(String key, byte[] encoded) {
+        final byte[] previous = memory.put(key, encoded);
+        if (previous != null)
+            memoryBytes -= previous.length;
+        memoryBytes += encoded.length;
+        final Iterator<byte[]> iterator = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && iterator.hasNext()) {
+            memoryBytes -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Writes an entry to a temporary file renamed into place, so a reader never sees a
+     * partial entry, then trims the oldest entries not in use while the directory is over
+     * its limit.
+     */
+    private void writeDisk(File cached, long length, Content content) throws IOException {
+        final File temp = new File(directory, cached.getName() + TEMP_SUFFIX + Thread.currentThread().getId());
+        final OutputStream outputStream = new FileOutputStream(temp);
+        try {
+            content.writeTo(outputStream);
+        } finally {
+            outputStream.close();
+        }
+        synchronized (this) {
+            final boolean replaced = cached.exists();
+            if (!temp.renameTo(cached)) {
+                temp.delete();
+                return;
+            }
+            if (!replaced)
+                diskBytes += length;
+            if (diskBytes > maxDiskBytes)
+                trimDisk(cached);
+        }
+    }
+
+    private void trimDisk(File keep) {
+        final File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        final Set<File> inUse = new HashSet<>();
+        for (FileSource source : fileSources)
+            inUse.add(source.file);
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                final long first = a.lastModified();
+                final long second = b.lastModified();
+                return first < second ? -1 : (first == second ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (diskBytes <= maxDiskBytes)
+                return;
+            if (file.equals(keep) || inUse.contains(file) || file.getName().contains(TEMP_SUFFIX))
+                continue;
+            final long length = file.length();
+            if (file.delete())
+                diskBytes -= length;
+        }
+    }
+
+    private void openDirectory() {
+        directory.mkdirs();
+        final File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (file.getName().contains(TEMP_SUFFIX))
+                file.delete();
+            else
+                diskBytes += file.length();
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        final InputStream inputStream = new FileInputStream(file);
+        final byte[] buffer = BufferPool.shared().acquire(BUFFER_SIZE);
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+        } finally {
+            BufferPool.shared().release(buffer);
+            inputStream.close();
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+
+    private interface Content {
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+
+    private static class BytesSource implements JsonWriter.Base64Source {
+        private final byte[] bytes;
+
+        BytesSource(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long getEncodedLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public void writeBase64(OutputStream outputStream) throws IOException {
+            outputStream.write(bytes);
+        }
+    }
+
+    private static class FileSource implements JsonWriter.Base64Source {
+        private final File file;
+
+        FileSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public long getEncodedLength() {
+            return file.length();
+        }
+
+        @Override
+        public void writeBase64(OutputStream outputStream) throws IOException {
+            final InputStream inputStream = new FileInputStream(file);
+            final byte[] buffer = BufferPool.shared().acquire(BUFFER_SIZE);
+            try {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1)
+                    outputStream.write(buffer, 0, read);
+            } finally {
+                BufferPool.shared().release(buffer);
+                inputStream.close();
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private long maxMemoryBytes = 4 * 1024 * 1024;
+        private File directory;
+        private long maxDiskBytes;
+
+        private Builder() { }
+
+        /**
+         * The most bytes of encoded content kept in memory, zero keeps none.
+         *
+         * @param maxBytes the memory limit in bytes
+         * @return this builder
+         */
+        public Builder setMaxMemorySize(long maxBytes) {
+            if (maxBytes < 0)
+                throw new IllegalArgumentException("maxBytes < 0");
+            this.maxMemoryBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Also keeps encodings in the given directory, such as one inside
+         * {@code Context.getCacheDir()}, so they survive restarts. The directory must
+         * only be used by this cache.
+         *
+         * @param directory the directory holding the encodings
+         * @param maxBytes  the most bytes kept in the directory
+         * @return this builder
+         */
+        public Builder setDiskCache(@NonNull File directory, long maxBytes) {
+            if (maxBytes < 0)
+                throw new IllegalArgumentException("maxBytes < 0");
+            this.directory = directory;
+            this.maxDiskBytes = maxBytes;
+            return this;
+        }
+
+        public AttachmentCache build() {
+            return new AttachmentCache(this);
+        }
+    }
+
+}
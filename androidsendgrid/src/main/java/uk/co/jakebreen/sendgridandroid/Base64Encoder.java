@@ -0,0 +1,162 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Table driven base64 encoder producing the padded, unwrapped alphabet of RFC 4648,
+ * the same output as {@code android.util.Base64} with {@code NO_WRAP}, on Android and
+ * the JVM alike.
+ *
+ * Input is encoded in large blocks from an {@link InputStream} or a channel, such as a
+ * file's {@code FileChannel}, straight into a destination stream or array. The inner
+ * loop works on buffers borrowed from the {@link BufferPool} and allocates nothing, an
+ * encoder may be reused until it is released but is not thread safe.
+ */
+final class Base64Encoder {
+
+    /**
+     * Bytes read per block, a multiple of 3 so only the last block needs padding.
+     */
+    static final int BLOCK_SIZE = 48 * 1024;
+
+    private static final byte[] ALPHABET = {
+            'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
+            'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z',
+            'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
+            'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/'
+    };
+    private static final byte PADDING = '=';
+
+    private final byte[] input = BufferPool.shared().acquire(BLOCK_SIZE);
+    private final byte[] output = BufferPool.shared().acquire(encodedLength(BLOCK_SIZE));
+    private final ByteBuffer inputBuffer = ByteBuffer.wrap(input);
+
+    /**
+     * Returns the length of the padded encoding of the given number of bytes.
+     */
+    static long encodedLength(long byteCount) {
+        return (byteCount + 2) / 3 * 4;
+    }
+
+    private static int encodedLength(int byteCount) {
+        return (byteCount + 2) / 3 * 4;
+    }
+
+    /**
+     * Encodes the bytes into the destination, padding a trailing group of fewer than
+     * 3 bytes.
+     *
+     * @return the number of characters written
+     */
+    static int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        int s = srcOffset;
+        int d = dstOffset;
+        final int wholeEnd = srcOffset + length - length % 3;
+        while (s < wholeEnd) {
+            final int bits = (src[s] & 0xff) << 16 | (src[s + 1] & 0xff) << 8 | (src[s + 2] & 0xff);
+            s += 3;
+            dst[d] = ALPHABET[bits >>> 18];
+            dst[d + 1] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[d + 2] = ALPHABET[(bits >>> 6) & 0x3f];
+            dst[d + 3] = ALPHABET[bits & 0x3f];
+            d += 4;
+        }
+        final int remaining = srcOffset + length - s;
+        if (remaining > 0) {
+            final int bits = (src[s] & 0xff) << 16 | (remaining == 2 ? (src[s + 1] & 0xff) << 8 : 0);
+            dst[d] = ALPHABET[bits >>> 18];
+            dst[d + 1] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[d + 2] = remaining == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : PADDING;
+            dst[d + 3] = PADDING;
+            d += 4;
+        }
+        return d - dstOffset;
+    }
+
+    /**
+     * Streams the encoding of everything left in the input stream to the output stream,
+     * leaving both open.
+     *
+     * @return the number of bytes read
+     */
+    long encode(InputStream inputStream, OutputStream outputStream) throws IOException {
+        long total = 0;
+        int read;
+        while ((read = fill(inputStream)) > 0) {
+            outputStream.write(output, 0, encode(input, 0, read, output, 0));
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Streams the encoding of everything left in the channel to the output stream,
+     * leaving both open.
+     *
+     * @return the number of bytes read
+     */
+    long encode(ReadableByteChannel channel, OutputStream outputStream) throws IOException {
+        long total = 0;
+        int read;
+        while ((read = fill(channel)) > 0) {
+            outputStream.write(output, 0, encode(input, 0, read, output, 0));
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Encodes everything left in the channel straight into the destination array, which
+     * must have room for the whole encoding.
+     *
+     * @return the number of characters written
+     */
+    int encode(ReadableByteChannel channel, byte[] dst, int dstOffset) throws IOException {
+        int d = dstOffset;
+        int read;
+        while ((read = fill(channel)) > 0) {
+            if (encodedLength(read) > dst.length - d)
+                throw new IOException("Content grew while being encoded");
+            d += encode(input, 0, read, dst, d);
+        }
+        return d - dstOffset;
+    }
+
+    /**
+     * Returns the encoder's buffers to the pool, it must not be used afterwards.
+     */
+    void release() {
+        BufferPool.shared().release(input);
+        BufferPool.shared().release(output);
+    }
+
+    /**
+     * Reads until the block is full or the stream ends, so a short block is always the
+     * last one.
+     */
+    private int fill(InputStream inputStream) throws IOException {
+        int position = 0;
+        while (position < BLOCK_SIZE) {
+            final int read = inputStream.read(input, position, BLOCK_SIZE - position);
+            if (read == -1)
+                break;
+            position += read;
+        }
+        return position;
+    }
+
+    private int fill(ReadableByteChannel channel) throws IOException {
+        inputBuffer.clear();
+        while (inputBuffer.hasRemaining()) {
+            if (channel.read(inputBuffer) == -1)
+                break;
+        }
+        return inputBuffer.position();
+    }
+
+}
@@ -0,0 +1,139 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import android.util.Log;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide pool of the byte arrays that serializing, encoding and reading requests
+ * work through, so a busy worker reuses the same few buffers instead of allocating
+ * new ones for every send. Buffers are pooled by exact length and the pool keeps at
+ * most {@link #MAX_POOLED_BYTES} of idle buffers, anything beyond is left to the
+ * garbage collector.
+ *
+ * A borrowed buffer must be released exactly once and not used afterwards. With leak
+ * detection on, a buffer that is garbage collected without having been released is
+ * logged along with the stack trace of where it was borrowed.
+ */
+final class BufferPool {
+
+    static final long MAX_POOLED_BYTES = 1024 * 1024;
+    private static final String TAG = "SendGrid";
+    private static final BufferPool SHARED = new BufferPool(MAX_POOLED_BYTES);
+
+    private final long maxPooledBytes;
+    private final Map<Integer, ArrayDeque<byte[]>> pooled = new HashMap<>();
+    private long pooledBytes;
+
+    private volatile boolean leakDetection;
+    private final ReferenceQueue<byte[]> collected = new ReferenceQueue<>();
+    private final Map<byte[], Lease> leases = new WeakHashMap<>();
+    private final Set<Lease> liveLeases = new HashSet<>();
+    private int leakCount;
+
+    BufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Tracks every buffer borrowed from now on, at the cost of a stack trace per
+     * borrow. Meant for debug builds.
+     */
+    void setLeakDetection(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+    }
+
+    /**
+     * Borrows a buffer of exactly the given length, its content is undefined.
+     */
+    byte[] acquire(int length) {
+        byte[] buffer = null;
+        synchronized (this) {
+            final ArrayDeque<byte[]> free = pooled.get(length);
+            if (free != null && !free.isEmpty()) {
+                buffer = free.pop();
+                pooledBytes -= length;
+            }
+        }
+        if (buffer == null)
+            buffer = new byte[length];
+        if (leakDetection)
+            track(buffer);
+        return buffer;
+    }
+
+    /**
+     * Returns a borrowed buffer to the pool, or drops it if the pool is full.
+     */
+    void release(byte[] buffer) {
+        if (buffer == null)
+            return;
+        synchronized (this) {
+            final Lease lease = leases.remove(buffer);
+            if (lease != null) {
+                lease.clear();
+                liveLeases.remove(lease);
+            }
+            if (pooledBytes + buffer.length > maxPooledBytes)
+                return;
+            ArrayDeque<byte[]> free = pooled.get(buffer.length);
+            if (free == null) {
+                free = new ArrayDeque<>();
+                pooled.put(buffer.length, free);
+            }
+            free.push(buffer);
+            pooledBytes += buffer.length;
+        }
+    }
+
+    synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * Returns the number of leaked buffers found so far, checking for new ones first.
+     */
+    synchronized int getLeakCount() {
+        reportLeaks();
+        return leakCount;
+    }
+
+    private synchronized void track(byte[] buffer) {
+        reportLeaks();
+        final Lease lease = new Lease(buffer, collected);
+        leases.put(buffer, lease);
+        liveLeases.add(lease);
+    }
+
+    private void reportLeaks() {
+        Lease lease;
+        while ((lease = (Lease) collected.poll()) != null) {
+            if (!liveLeases.remove(lease))
+                continue;
+            leakCount++;
+            Log.w(TAG, "A " + lease.length + " byte buffer was never released to the pool", lease.borrowed);
+        }
+    }
+
+    private static final class Lease extends WeakReference<byte[]> {
+        final int length;
+        final Throwable borrowed = new Throwable("Buffer borrowed here");
+
+        Lease(byte[] buffer, ReferenceQueue<byte[]> queue) {
+            super(buffer, queue);
+            this.length = buffer.length;
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Reports the events of one call to its {@link EventListener}. Only created when a
+ * listener is set, so calls without one take no timings.
+ */
+final class CallEvents {
+
+    private static final AtomicLong NEXT_CALL_ID = new AtomicLong();
+
+    /**
+     * The call connecting on the current thread, used to attribute new sockets.
+     */
+    private static final ThreadLocal<CallEvents> CONNECTING = new ThreadLocal<>();
+
+    final EventListener listener;
+    final long callId;
+    private boolean newConnection;
+
+    CallEvents(EventListener listener) {
+        this.listener = listener;
+        this.callId = NEXT_CALL_ID.incrementAndGet();
+    }
+
+    /**
+     * Reports what a writer spent on attachment content, if it wrote any.
+     */
+    void attachmentsWritten(JsonWriter writer) {
+        if (writer.getBase64ByteCount() > 0)
+            listener.attachmentsEncoded(callId, writer.getBase64ByteCount(), writer.getBase64Nanos());
+    }
+
+    void connectStart() {
+        newConnection = false;
+        CONNECTING.set(this);
+    }
+
+    /**
+     * Returns whether a new connection was opened since {@link #connectStart()}.
+     */
+    boolean connectEnd() {
+        CONNECTING.remove();
+        return newConnection;
+    }
+
+    /**
+     * Called by {@link InstrumentedSocketFactory} for every TLS socket it creates.
+     */
+    static void socketCreated(SSLSocket socket) {
+        final CallEvents events = CONNECTING.get();
+        if (events == null)
+            return;
+        events.newConnection = true;
+        final long start = System.nanoTime();
+        socket.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+            @Override
+            public void handshakeCompleted(HandshakeCompletedEvent event) {
+                events.listener.secureConnectEnd(events.callId, System.nanoTime() - start);
+                event.getSocket().removeHandshakeCompletedListener(this);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,217 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline and cancellation of one call across all of its attempts. Cancelling, or
+ * reaching the deadline, disconnects the connection in use, which fails a blocked
+ * read or write, and interrupts a thread waiting out a retry delay; the upload itself
+ * checks the handle between buffers.
+ */
+final class CallHandle {
+
+    private static final long TIMER_KEEP_ALIVE_SECONDS = 60;
+    private static ScheduledThreadPoolExecutor timer;
+
+    private final long timeoutNanos;
+    private Clock clock;
+    private long deadlineNanos;
+    private ScheduledFuture<?> expiry;
+    private Runnable expiryAction;
+    private volatile boolean cancelled;
+    private volatile boolean expired;
+    private HttpURLConnection connection;
+    private Thread runner;
+    private boolean interrupted;
+
+    /**
+     * @param timeoutNanos how long the call may take once started, or 0 for no deadline
+     */
+    CallHandle(long timeoutNanos) {
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Starts the deadline, later calls keep the first start. A timer aborts the call
+     * once the deadline passes, even while it is stuck in a write that never returns.
+     */
+    synchronized void start(Clock clock) {
+        if (this.clock != null)
+            return;
+        this.clock = clock;
+        if (timeoutNanos > 0) {
+            deadlineNanos = clock.nanoTime() + timeoutNanos;
+            expiry = getTimer().schedule(this::expire, timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Sets what to run, after aborting the call, once the deadline passes. It runs on
+     * the timer, also when the call is still waiting for a thread to run on.
+     */
+    synchronized void setExpiryAction(Runnable action) {
+        expiryAction = action;
+    }
+
+    void cancel() {
+        cancelled = true;
+        abort();
+    }
+
+    private void expire() {
+        expired = true;
+        abort();
+        final Runnable action;
+        synchronized (this) {
+            action = expiryAction;
+        }
+        if (action != null)
+            action.run();
+    }
+
+    private synchronized void abort() {
+        if (connection != null) {
+            connection.disconnect();
+            connection = null;
+        }
+        if (runner != null && !interrupted) {
+            interrupted = true;
+            runner.interrupt();
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns whether the call was cancelled or ran past its deadline.
+     */
+    boolean isAborted() {
+        return cancelled || expired || remainingMillis() == 0;
+    }
+
+    /**
+     * Throws if the call was cancelled or ran past its deadline.
+     */
+    void check() throws InterruptedIOException {
+        if (cancelled)
+            throw new InterruptedIOException("Canceled");
+        if (expired || remainingMillis() == 0)
+            throw new InterruptedIOException("Deadline exceeded");
+    }
+
+    /**
+     * Returns the milliseconds left until the deadline, at least 1 while there is any
+     * time left, 0 once it passed, or -1 without a deadline.
+     */
+    synchronized long remainingMillis() {
+        if (deadlineNanos == 0)
+            return -1;
+        final long remaining = deadlineNanos - clock.nanoTime();
+        return remaining <= 0 ? 0 : Math.max(1, remaining / 1000000);
+    }
+
+    /**
+     * Returns the timeout to give a connection for one step, shortened to the time left
+     * until the deadline. A timeout of 0 waits forever.
+     */
+    int timeout(int timeoutMillis) throws InterruptedIOException {
+        check();
+        final long remaining = remainingMillis();
+        if (remaining < 0 || (timeoutMillis > 0 && timeoutMillis <= remaining))
+            return timeoutMillis;
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Records the thread running the call, so a cancel can interrupt its waits.
+     */
+    synchronized void enter() {
+        runner = Thread.currentThread();
+    }
+
+    /**
+     * Forgets the running thread and clears an interrupt sent by {@link #cancel()},
+     * which must not leak into the next task of a pooled thread.
+     */
+    synchronized void exit() {
+        if (expiry != null)
+            expiry.cancel(false);
+        leave();
+    }
+
+    /**
+     * Waits for the latch until the deadline, or until the call is cancelled, without
+     * ending the call the way {@link #exit()} does.
+     */
+    void await(CountDownLatch latch) throws InterruptedException, InterruptedIOException {
+        synchronized (this) {
+            runner = Thread.currentThread();
+        }
+        try {
+            check();
+            long remaining = remainingMillis();
+            if (remaining < 0) {
+                latch.await();
+                return;
+            }
+            while (!latch.await(remaining, TimeUnit.MILLISECONDS)) {
+                check();
+                remaining = remainingMillis();
+            }
+        } catch (InterruptedException e) {
+            check();
+            throw e;
+        } finally {
+            synchronized (this) {
+                leave();
+            }
+        }
+    }
+
+    private void leave() {
+        runner = null;
+        if (interrupted) {
+            Thread.interrupted();
+            interrupted = false;
+        }
+    }
+
+    synchronized void attach(HttpURLConnection connection) throws InterruptedIOException {
+        try {
+            check();
+        } catch (InterruptedIOException e) {
+            connection.disconnect();
+            throw e;
+        }
+        this.connection = connection;
+    }
+
+    /**
+     * Forgets the connection once its exchange is over. A finished connection may be
+     * back in the keep-alive pool serving another call and must not be disconnected.
+     */
+    synchronized void detach() {
+        connection = null;
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getTimer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                final Thread thread = new Thread(runnable, "SendGrid-deadline");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.setKeepAliveTime(TIMER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            timer.allowCoreThreadTimeOut(true);
+        }
+        return timer;
+    }
+
+}
@@ -0,0 +1,35 @@
+package uk.co.jakebreen.sendgridandroid;
+
+/**
+ * Source of wall-clock time and of waiting, replaced by a fake in tests so code that
+ * backs off or schedules work can be driven without real delays.
+ */
+interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+    };
+
+    long currentTimeMillis();
+
+    /**
+     * Monotonic time for measuring intervals, unrelated to the wall clock.
+     */
+    long nanoTime();
+
+    void sleep(long millis) throws InterruptedException;
+
+}
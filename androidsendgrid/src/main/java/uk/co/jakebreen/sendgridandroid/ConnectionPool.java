@@ -0,0 +1,35 @@
+package uk.co.jakebreen.sendgridandroid;
+
+/**
+ * Tunes the platform HTTP connection pool that {@link java.net.HttpURLConnection} keeps
+ * behind the scenes. Both the Android and the JVM implementations read these
+ * properties process-wide when their pool is created, so they only take effect
+ * when applied before the first request of the process.
+ */
+final class ConnectionPool {
+
+    private static final String PROPERTY_KEEP_ALIVE = "http.keepAlive";
+    private static final String PROPERTY_MAX_CONNECTIONS = "http.maxConnections";
+    private static final String PROPERTY_KEEP_ALIVE_DURATION = "http.keepAliveDuration";
+
+    private ConnectionPool() { }
+
+    /**
+     * @param maxIdleConnections      idle connections kept per host, zero disables keep-alive
+     *                                and a negative value keeps the platform default
+     * @param keepAliveDurationMillis how long an idle connection is kept, ignored when negative
+     */
+    static void configure(int maxIdleConnections, long keepAliveDurationMillis) {
+        if (maxIdleConnections == 0) {
+            System.setProperty(PROPERTY_KEEP_ALIVE, "false");
+            return;
+        }
+        if (maxIdleConnections > 0) {
+            System.setProperty(PROPERTY_KEEP_ALIVE, "true");
+            System.setProperty(PROPERTY_MAX_CONNECTIONS, Integer.toString(maxIdleConnections));
+        }
+        if (keepAliveDurationMillis >= 0)
+            System.setProperty(PROPERTY_KEEP_ALIVE_DURATION, Long.toString(keepAliveDurationMillis));
+    }
+
+}
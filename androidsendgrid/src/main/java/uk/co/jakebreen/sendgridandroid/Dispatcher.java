@@ -0,0 +1,75 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the bounded worker pool requests are dispatched on. Threads are created on
+ * demand up to the concurrency limit and die off after a minute of idleness, so an
+ * unused SendGrid instance holds no threads.
+ */
+final class Dispatcher {
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final int maxConcurrentRequests;
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService scheduler;
+
+    Dispatcher(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests,
+                    THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory("SendGrid-"));
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Single timer thread for delayed work, which hands anything slow over to the
+     * worker pool instead of running it on the timer.
+     */
+    synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                    new WorkerThreadFactory("SendGrid-timer-"));
+            timer.setKeepAliveTime(THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            timer.allowCoreThreadTimeOut(true);
+            scheduler = timer;
+        }
+        return scheduler;
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -1,20 +1,109 @@
 package uk.co.jakebreen.sendgridandroid;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-class ErrorParser {
+/**
+ * Pull parser for API error bodies of the form
+ * {@code {"errors":[{"message":"..","field":"..","help":".."}]}}. It walks the text once,
+ * keeping only the string members of each error and skipping everything else, so no
+ * JSON tree is built.
+ */
+class ErrorParser extends JsonReader {
 
     private static final String KEY_ERRORS = "errors";
     private static final String KEY_MESSAGE = "message";
+    private static final String KEY_FIELD = "field";
+    private static final String KEY_HELP = "help";
 
+    private ErrorParser(String json) {
+        super(json);
+    }
+
+    /**
+     * Returns the message of the first error, or a description of why there is none.
+     */
     static String parseError(String response) {
         try {
-            return new JSONObject(response).getJSONArray(KEY_ERRORS).getJSONObject(0).get(KEY_MESSAGE).toString();
-        } catch (JSONException e) {
-            e.printStackTrace();
+            final List<SendGridError> errors = parseErrors(response);
+            if (errors.isEmpty())
+                return "Error parsing error message: no errors in response";
+            return errors.get(0).getMessage();
+        } catch (MalformedJsonException e) {
             return String.format("Error parsing error message: %s", e.getMessage());
         }
     }
 
+    /**
+     * Returns every error in the response, in order. Errors without a message are
+     * skipped.
+     */
+    static List<SendGridError> parseErrors(String response) throws MalformedJsonException {
+        if (response == null)
+            throw new MalformedJsonException("empty response");
+        return new ErrorParser(response).parseBody();
+    }
+
+    private List<SendGridError> parseBody() throws MalformedJsonException {
+        List<SendGridError> errors = Collections.emptyList();
+        expect('{');
+        if (!consume('}')) {
+            do {
+                final String name = readString();
+                expect(':');
+                if (KEY_ERRORS.equals(name) && peek() == '[')
+                    errors = parseErrorArray();
+                else
+                    skipValue();
+            } while (consume(','));
+            expect('}');
+        }
+        return errors;
+    }
+
+    private List<SendGridError> parseErrorArray() throws MalformedJsonException {
+        final List<SendGridError> errors = new ArrayList<>();
+        expect('[');
+        if (consume(']'))
+            return errors;
+        do {
+            if (peek() != '{') {
+                skipValue();
+                continue;
+            }
+            final SendGridError error = parseErrorObject();
+            if (error != null)
+                errors.add(error);
+        } while (consume(','));
+        expect(']');
+        return errors;
+    }
+
+    private SendGridError parseErrorObject() throws MalformedJsonException {
+        String message = null;
+        String field = null;
+        String help = null;
+        expect('{');
+        if (!consume('}')) {
+            do {
+                final String name = readString();
+                expect(':');
+                if (peek() != '"') {
+                    skipValue();
+                } else if (KEY_MESSAGE.equals(name)) {
+                    message = readString();
+                } else if (KEY_FIELD.equals(name)) {
+                    field = readString();
+                } else if (KEY_HELP.equals(name)) {
+                    help = readString();
+                } else {
+                    skipValue();
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        return message != null ? new SendGridError(message, field, help) : null;
+    }
+
 }
@@ -0,0 +1,105 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives the phases and timings of every request made by a {@link SendGrid} instance,
+ * set with {@link SendGrid.Builder#setEventListener(EventListener)}. Override only the
+ * callbacks of interest, the others do nothing. {@link SendGridMetrics} is a listener
+ * that aggregates them into counters and histograms.
+ *
+ * Every callback of one call carries the same call id. A retried call reports the
+ * connection, upload and response phases once per attempt. Callbacks are made on the
+ * thread sending the request, apart from {@link #secureConnectEnd(long, long)}, and
+ * must return quickly. Durations are in nanoseconds.
+ *
+ * When no listener is set none of the timings are taken.
+ */
+public abstract class EventListener {
+
+    /**
+     * A listener that ignores every event.
+     */
+    public static final EventListener NONE = new EventListener() { };
+
+    /**
+     * A call is about to be made, before any attempt.
+     *
+     * @param callId the id of the call
+     */
+    public void callStart(long callId) { }
+
+    /**
+     * The body was serialized once to measure its length, without attachment content.
+     *
+     * @param callId        the id of the call
+     * @param contentLength the length of the body in bytes, or -1 when unknown
+     * @param durationNanos the time taken
+     */
+    public void bodySerialized(long callId, long contentLength, long durationNanos) { }
+
+    /**
+     * A connection to the API was acquired, either a kept-alive one or a new one.
+     *
+     * @param callId        the id of the call
+     * @param reused        true if a kept-alive connection was reused
+     * @param durationNanos the time taken, including connecting and the TLS handshake
+     *                      of a new connection
+     */
+    public void connectionAcquired(long callId, boolean reused, long durationNanos) { }
+
+    /**
+     * The TLS handshake of a new connection completed. This may be reported on a
+     * thread of the TLS implementation.
+     *
+     * @param callId        the id of the call
+     * @param durationNanos the time from creating the TLS socket to the end of its handshake
+     */
+    public void secureConnectEnd(long callId, long durationNanos) { }
+
+    /**
+     * The attachments of the body were encoded to base64 and written.
+     *
+     * @param callId        the id of the call
+     * @param encodedBytes  the number of base64 characters written
+     * @param durationNanos the time taken, including writing them to the connection
+     */
+    public void attachmentsEncoded(long callId, long encodedBytes, long durationNanos) { }
+
+    /**
+     * The request body was written to the connection.
+     *
+     * @param callId        the id of the call
+     * @param bytes         the number of bytes sent, after any compression
+     * @param durationNanos the time taken
+     */
+    public void requestBodyEnd(long callId, long bytes, long durationNanos) { }
+
+    /**
+     * The response headers were received.
+     *
+     * @param callId                the id of the call
+     * @param code                  the HTTP status code
+     * @param timeToFirstByteNanos  the time from the end of the upload to the response
+     */
+    public void responseHeadersEnd(long callId, int code, long timeToFirstByteNanos) { }
+
+    /**
+     * The call completed with a response, after any retries.
+     *
+     * @param callId        the id of the call
+     * @param response      the response of the last attempt
+     * @param durationNanos the time taken by the whole call
+     */
+    public void callEnd(long callId, @NonNull SendGridResponse response, long durationNanos) { }
+
+    /**
+     * The call failed without a response, after any retries.
+     *
+     * @param callId        the id of the call
+     * @param exception     the cause of the failure
+     * @param durationNanos the time taken by the whole call
+     */
+    public void callFailed(long callId, @NonNull Exception exception, long durationNanos) { }
+
+}
@@ -1,64 +1,119 @@
 package uk.co.jakebreen.sendgridandroid;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.OpenableColumns;
-import android.util.Base64;
-import android.util.Base64OutputStream;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 class FileEncoder {
 
-    private static final int BYTE_BUFFER_SIZE = 4 * 1024;
+    private static final String DEFAULT_FILENAME = "attachment";
 
-    static String encodeFileToBase64(File file) throws IOException {
-        final InputStream inputStream = new FileInputStream(file.getAbsolutePath());
-        final ByteArrayOutputStream output = new ByteArrayOutputStream();
-        final Base64OutputStream output64 = new Base64OutputStream(output, Base64.NO_WRAP);
-
-        final byte[] buffer = new byte[BYTE_BUFFER_SIZE];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            output64.write(buffer, 0, bytesRead);
+    /**
+     * Streams the base64 encoding of the file to the output stream, read through its
+     * channel a block at a time, leaving the output stream open.
+     */
+    static void encodeFileToBase64(File file, OutputStream outputStream) throws IOException {
+        final FileInputStream inputStream = new FileInputStream(file);
+        final Base64Encoder encoder = new Base64Encoder();
+        try {
+            encoder.encode(inputStream.getChannel(), outputStream);
+        } finally {
+            encoder.release();
+            inputStream.close();
         }
+    }
 
-        output64.close();
-        return output.toString();
+    /**
+     * Returns the base64 encoding of the file, encoded straight into an array of the
+     * exact size.
+     */
+    static byte[] encodeFileToBase64(File file) throws IOException {
+        final FileInputStream inputStream = new FileInputStream(file);
+        final Base64Encoder encoder = new Base64Encoder();
+        try {
+            final FileChannel channel = inputStream.getChannel();
+            final long encodedLength = base64Length(channel.size());
+            if (encodedLength > Integer.MAX_VALUE)
+                throw new IOException("File too large to encode in memory");
+            final byte[] encoded = new byte[(int) encodedLength];
+            final int written = encoder.encode(channel, encoded, 0);
+            return written == encoded.length ? encoded : Arrays.copyOf(encoded, written);
+        } finally {
+            encoder.release();
+            inputStream.close();
+        }
     }
 
-    static File uriToFile(Context context, Uri uri) throws IOException {
-        final Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
-        if (cursor == null) return null;
+    /**
+     * Streams the base64 encoding of the content behind the uri to the output stream,
+     * read straight from the content resolver without a copy on storage.
+     */
+    static void encodeUriToBase64(ContentResolver resolver, Uri uri, OutputStream outputStream) throws IOException {
+        final InputStream inputStream = resolver.openInputStream(uri);
+        if (inputStream == null)
+            throw new FileNotFoundException(uri.toString());
+        encodeToBase64(inputStream, outputStream);
+    }
 
-        final int indexName = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-        cursor.moveToFirst();
+    /**
+     * Streams the base64 encoding of the input stream to the output stream, closing the
+     * input stream and leaving the output stream open.
+     */
+    private static void encodeToBase64(InputStream inputStream, OutputStream outputStream) throws IOException {
+        final Base64Encoder encoder = new Base64Encoder();
+        try {
+            encoder.encode(inputStream, outputStream);
+        } finally {
+            encoder.release();
+            inputStream.close();
+        }
+    }
 
-        final String fileName = cursor.getString(indexName);
-        final File file = new File(context.getExternalCacheDir(), fileName);
-        final OutputStream outputStream = new FileOutputStream(file);
-        final InputStream inputStream = context.getContentResolver().openInputStream(uri);
+    /**
+     * Returns the length of the padded, unwrapped base64 encoding of the given number of bytes.
+     */
+    static long base64Length(long byteCount) {
+        return Base64Encoder.encodedLength(byteCount);
+    }
 
-        if (inputStream == null) return null;
+    /**
+     * Returns an attachment reading the content behind the uri when the mail is sent,
+     * named and sized from the provider's {@link OpenableColumns}, or null if the
+     * provider knows nothing of the uri. The size is left unknown when the provider
+     * does not report it.
+     */
+    static SendGridMail.Attachment uriToAttachment(Context context, Uri uri) {
+        // The application's resolver, as the attachment may outlive an activity.
+        final Context applicationContext = context.getApplicationContext();
+        final ContentResolver resolver = (applicationContext != null ? applicationContext : context)
+                .getContentResolver();
+        final Cursor cursor = resolver.query(uri,
+                new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, null, null, null);
+        if (cursor == null) return null;
 
-        final byte[] buffer = new byte[BYTE_BUFFER_SIZE];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, bytesRead);
+        try {
+            if (!cursor.moveToFirst()) return null;
+            final int indexName = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+            final int indexSize = cursor.getColumnIndex(OpenableColumns.SIZE);
+            String name = indexName >= 0 ? cursor.getString(indexName) : null;
+            if (name == null)
+                name = uri.getLastPathSegment() != null ? uri.getLastPathSegment() : DEFAULT_FILENAME;
+            final long size = indexSize >= 0 && !cursor.isNull(indexSize) ? cursor.getLong(indexSize) : -1;
+            return new SendGridMail.Attachment(resolver, uri, name, size);
+        } finally {
+            cursor.close();
         }
-
-        cursor.close();
-        outputStream.close();
-        inputStream.close();
-
-        return file;
     }
 
 }
@@ -0,0 +1,78 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses another body with gzip as it is written, so the whole compressed body is
+ * never held in memory. Its length is only known once written, so it is sent chunked.
+ */
+class GzipRequestBody extends RequestBody {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final RequestBody body;
+
+    GzipRequestBody(RequestBody body) {
+        this.body = body;
+    }
+
+    @Override
+    long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    String getContentEncoding() {
+        return "gzip";
+    }
+
+    @Override
+    void writeTo(OutputStream outputStream) throws IOException {
+        writeTo(outputStream, null);
+    }
+
+    @Override
+    void writeTo(OutputStream outputStream, CallEvents events) throws IOException {
+        final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(new NonClosingOutputStream(outputStream), BUFFER_SIZE);
+        try {
+            body.writeTo(gzipOutputStream, events);
+            gzipOutputStream.finish();
+        } finally {
+            gzipOutputStream.close();
+        }
+    }
+
+    /**
+     * Keeps the connection stream open when the gzip stream is closed, leaving it to
+     * the caller as {@link RequestBody#writeTo(OutputStream)} requires.
+     */
+    private static class NonClosingOutputStream extends OutputStream {
+
+        private final OutputStream outputStream;
+
+        NonClosingOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            outputStream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            outputStream.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() { }
+    }
+
+}
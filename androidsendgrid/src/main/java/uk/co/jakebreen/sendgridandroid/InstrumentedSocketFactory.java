@@ -0,0 +1,69 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Delegating socket factory that tells {@link CallEvents} about every socket it
+ * creates, which is how a new connection is told apart from a reused one. A single
+ * instance must be used for all requests, connections are only pooled per factory.
+ */
+final class InstrumentedSocketFactory extends SSLSocketFactory {
+
+    private final SSLSocketFactory delegate;
+
+    InstrumentedSocketFactory(SSLSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return created(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+        return created(delegate.createSocket(socket, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return created(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return created(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return created(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return created(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    private static Socket created(Socket socket) {
+        if (socket instanceof SSLSocket)
+            CallEvents.socketCreated((SSLSocket) socket);
+        return socket;
+    }
+
+}
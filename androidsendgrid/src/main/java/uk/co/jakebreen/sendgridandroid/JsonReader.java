@@ -0,0 +1,139 @@
+package uk.co.jakebreen.sendgridandroid;
+
+/**
+ * Cursor over JSON text for the library's pull parsers, which walk it once and keep
+ * only the members they need, skipping everything else without building a tree.
+ */
+class JsonReader {
+
+    final String json;
+    int position;
+
+    JsonReader(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Returns the value of a top level string member of the JSON object, or null if it
+     * has no such member.
+     */
+    static String parseString(String json, String key) throws MalformedJsonException {
+        if (json == null)
+            throw new MalformedJsonException("empty response");
+        return new JsonReader(json).readMember(key);
+    }
+
+    private String readMember(String key) throws MalformedJsonException {
+        String value = null;
+        expect('{');
+        if (!consume('}')) {
+            do {
+                final String name = readString();
+                expect(':');
+                if (key.equals(name) && peek() == '"')
+                    value = readString();
+                else
+                    skipValue();
+            } while (consume(','));
+            expect('}');
+        }
+        return value;
+    }
+
+    void skipValue() throws MalformedJsonException {
+        final char c = peek();
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            final char close = c == '{' ? '}' : ']';
+            position++;
+            if (consume(close))
+                return;
+            do {
+                if (c == '{') {
+                    readString();
+                    expect(':');
+                }
+                skipValue();
+            } while (consume(','));
+            expect(close);
+        } else {
+            final int start = position;
+            while (position < json.length() && "{}[],: \t\r\n\"".indexOf(json.charAt(position)) < 0)
+                position++;
+            if (position == start)
+                throw syntaxError("Expected a value");
+        }
+    }
+
+    String readString() throws MalformedJsonException {
+        expect('"');
+        StringBuilder builder = null;
+        int start = position;
+        while (position < json.length()) {
+            final char c = json.charAt(position++);
+            if (c == '"') {
+                if (builder == null)
+                    return json.substring(start, position - 1);
+                return builder.append(json, start, position - 1).toString();
+            }
+            if (c != '\\')
+                continue;
+            if (builder == null)
+                builder = new StringBuilder();
+            builder.append(json, start, position - 1);
+            if (position >= json.length())
+                break;
+            final char escaped = json.charAt(position++);
+            switch (escaped) {
+                case 'b': builder.append('\b'); break;
+                case 't': builder.append('\t'); break;
+                case 'n': builder.append('\n'); break;
+                case 'f': builder.append('\f'); break;
+                case 'r': builder.append('\r'); break;
+                case 'u':
+                    if (position + 4 > json.length())
+                        throw syntaxError("Unterminated escape sequence");
+                    try {
+                        builder.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw syntaxError("Illegal escape sequence");
+                    }
+                    position += 4;
+                    break;
+                default: builder.append(escaped);
+            }
+            start = position;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    void expect(char c) throws MalformedJsonException {
+        if (!consume(c))
+            throw syntaxError("Expected '" + c + "'");
+    }
+
+    boolean consume(char c) {
+        if (peek() != c)
+            return false;
+        position++;
+        return true;
+    }
+
+    char peek() {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position)))
+            position++;
+        return position < json.length() ? json.charAt(position) : 0;
+    }
+
+    MalformedJsonException syntaxError(String message) {
+        return new MalformedJsonException(message + " at character " + position);
+    }
+
+    static class MalformedJsonException extends Exception {
+        MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Minimal streaming JSON writer that encodes straight to UTF-8 into a small fixed
+ * buffer, so a mail body can be sent without building a JSON tree or String copy.
+ *
+ * A writer created with {@link #measuring()} has no destination and only counts
+ * the bytes that would have been written, used to compute Content-Length up front.
+ */
+final class JsonWriter implements Flushable {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_DEPTH = 16;
+    private static final byte[] HEX = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private final OutputStream outputStream;
+    private byte[] buffer = BufferPool.shared().acquire(BUFFER_SIZE);
+    private final boolean[] first = new boolean[MAX_DEPTH];
+    private int position;
+    private int depth;
+    private boolean afterName;
+    private long byteCount;
+    private boolean lengthUnknown;
+    private long base64ByteCount;
+    private long base64Nanos;
+
+    JsonWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    static JsonWriter measuring() {
+        return new JsonWriter(null);
+    }
+
+    JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    JsonWriter name(String name) throws IOException {
+        beforeValue();
+        writeString(name);
+        writeByte(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) throws IOException {
+        if (value == null)
+            return nullValue();
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a string value whose characters are produced by the source directly on
+     * the destination stream, bypassing the buffer. A measuring writer only adds
+     * the declared length and never asks the source for its content, a source of
+     * unknown length makes the length of the whole output unknown.
+     */
+    JsonWriter value(Base64Source source) throws IOException {
+        beforeValue();
+        writeByte('"');
+        flushBuffer();
+        final long length = source.getEncodedLength();
+        if (outputStream != null) {
+            final long start = System.nanoTime();
+            source.writeBase64(outputStream);
+            base64Nanos += System.nanoTime() - start;
+        }
+        if (length < 0) {
+            lengthUnknown = true;
+        } else {
+            byteCount += length;
+            base64ByteCount += length;
+        }
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * Writes members of the current object that were serialized earlier, such as
+     * {@code "a":1,"b":2}, copied as is without being parsed or escaped again.
+     */
+    JsonWriter members(byte[] fragment) throws IOException {
+        if (fragment.length == 0)
+            return this;
+        beforeValue();
+        if (fragment.length > BUFFER_SIZE - position) {
+            flushBuffer();
+            if (outputStream != null)
+                outputStream.write(fragment);
+            byteCount += fragment.length;
+        } else {
+            System.arraycopy(fragment, 0, buffer, position, fragment.length);
+            position += fragment.length;
+        }
+        return this;
+    }
+
+    JsonWriter nullValue() throws IOException {
+        beforeValue();
+        writeAscii("null");
+        return this;
+    }
+
+    /**
+     * Returns the buffer to the pool, the writer must not be used afterwards.
+     */
+    void release() {
+        BufferPool.shared().release(buffer);
+        buffer = null;
+    }
+
+    /**
+     * Returns the number of bytes produced so far, including any still buffered, or -1
+     * once a value of unknown length was written.
+     */
+    long getByteCount() {
+        return lengthUnknown ? -1 : byteCount + position;
+    }
+
+    /**
+     * Returns the number of characters written by {@link Base64Source} values.
+     */
+    long getBase64ByteCount() {
+        return base64ByteCount;
+    }
+
+    /**
+     * Returns the time spent writing {@link Base64Source} values, in nanoseconds.
+     */
+    long getBase64Nanos() {
+        return base64Nanos;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        if (outputStream != null)
+            outputStream.flush();
+    }
+
+    /**
+     * A value made only of base64 characters, which never need escaping, that is
+     * too large to be held in memory as a String.
+     */
+    interface Base64Source {
+
+        long getEncodedLength() throws IOException;
+
+        void writeBase64(OutputStream outputStream) throws IOException;
+
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        beforeValue();
+        if (depth == MAX_DEPTH)
+            throw new IllegalStateException("JSON nesting too deep");
+        first[depth++] = true;
+        writeByte(bracket);
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        if (depth == 0)
+            throw new IllegalStateException("Nothing to close");
+        depth--;
+        writeByte(bracket);
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth == 0)
+            return;
+        if (first[depth - 1])
+            first[depth - 1] = false;
+        else
+            writeByte(',');
+    }
+
+    private void writeString(String value) throws IOException {
+        writeByte('"');
+        final int length = value.length();
+        char previous = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                writeEscapedAscii(c, previous);
+            } else if (c < 0x800) {
+                writeByte(0xc0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                writeByte(0xf0 | (codePoint >> 18));
+                writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+                writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+                writeByte(0x80 | (codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                writeByte('?');
+            } else {
+                writeByte(0xe0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3f));
+                writeByte(0x80 | (c & 0x3f));
+            }
+            previous = c;
+        }
+        writeByte('"');
+    }
+
+    private void writeEscapedAscii(char c, char previous) throws IOException {
+        switch (c) {
+            case '"':
+            case '\\':
+                writeByte('\\');
+                writeByte(c);
+                break;
+            case '/':
+                if (previous == '<')
+                    writeByte('\\');
+                writeByte(c);
+                break;
+            case '\b':
+                writeAscii("\\b");
+                break;
+            case '\t':
+                writeAscii("\\t");
+                break;
+            case '\n':
+                writeAscii("\\n");
+                break;
+            case '\f':
+                writeAscii("\\f");
+                break;
+            case '\r':
+                writeAscii("\\r");
+                break;
+            default:
+                if (c < 0x20) {
+                    writeAscii("\\u00");
+                    writeByte(HEX[c >> 4]);
+                    writeByte(HEX[c & 0xf]);
+                } else {
+                    writeByte(c);
+                }
+        }
+    }
+
+    private void writeAscii(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++)
+            writeByte(value.charAt(i));
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (position == BUFFER_SIZE)
+            flushBuffer();
+        buffer[position++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (outputStream != null && position > 0)
+            outputStream.write(buffer, 0, position);
+        byteCount += position;
+        position = 0;
+    }
+
+}
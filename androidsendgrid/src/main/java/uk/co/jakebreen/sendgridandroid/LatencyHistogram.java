@@ -0,0 +1,117 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with microsecond resolution, as collected by
+ * {@link SendGridMetrics}.
+ *
+ * Durations are counted in logarithmic buckets, each power of two split into eight,
+ * so recording is a few atomic increments and percentiles are accurate to within
+ * about 12%. Reads may be made at any time while durations are being recorded.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    LatencyHistogram() { }
+
+    void record(long nanos) {
+        final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            // retry
+        }
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the recorded durations, or 0 if there are none.
+     *
+     * @param unit the unit of the result
+     * @return the mean duration
+     */
+    public long getMean(@NonNull TimeUnit unit) {
+        final long n = count.get();
+        return n == 0 ? 0 : unit.convert(totalMicros.get() / n, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Returns the longest recorded duration, or 0 if there are none.
+     *
+     * @param unit the unit of the result
+     * @return the maximum duration
+     */
+    public long getMax(@NonNull TimeUnit unit) {
+        return unit.convert(maxMicros.get(), TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Returns the duration below which the given percentage of the recorded durations
+     * fall, rounded up to the bucket it falls in, or 0 if there are none.
+     *
+     * @param percentile the percentage, between 0 and 100
+     * @param unit       the unit of the result
+     * @return the duration at the percentile
+     */
+    public long getPercentile(double percentile, @NonNull TimeUnit unit) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += counts.get(i);
+        if (total == 0)
+            return 0;
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return unit.convert(Math.min(upperBound(i), maxMicros.get()), TimeUnit.MICROSECONDS);
+        }
+        return getMax(unit);
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value counted in the bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = bucket % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+}
@@ -0,0 +1,95 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the rate of requests made with one API key across every
+ * {@link SendGrid} instance in the process, set up with
+ * {@link SendGrid.Builder#setRateLimit(double, int)}.
+ *
+ * Up to the burst size requests may be made at once, after which permits refill at a
+ * steady rate. The bucket is kept as a single theoretical arrival time updated with
+ * compare-and-set, so acquiring a permit never takes a lock.
+ */
+public class RateLimiter {
+
+    private static final ConcurrentMap<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final Clock clock;
+    private final AtomicLong arrival;
+
+    RateLimiter(double permitsPerSecond, int burst, Clock clock) {
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.clock = clock;
+        this.arrival = new AtomicLong(clock.nanoTime());
+    }
+
+    /**
+     * Returns the limiter registered for the key, registering a new one if there is
+     * none. The first registration wins, later settings for the same key are ignored.
+     */
+    static RateLimiter register(String apiKey, double permitsPerSecond, int burst, Clock clock) {
+        final RateLimiter limiter = new RateLimiter(permitsPerSecond, burst, clock);
+        final RateLimiter existing = LIMITERS.putIfAbsent(apiKey, limiter);
+        return existing != null ? existing : limiter;
+    }
+
+    /**
+     * Takes a permit if one is available without waiting.
+     *
+     * @return true if a permit was taken
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final long now = clock.nanoTime();
+            final long current = arrival.get();
+            final long start = current - now > 0 ? current : now;
+            if (start - now > toleranceNanos)
+                return false;
+            if (arrival.compareAndSet(current, start + intervalNanos))
+                return true;
+        }
+    }
+
+    /**
+     * Takes a permit, waiting until one is available. The permit is reserved before
+     * waiting, so callers are served in the order they arrive.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            final long now = clock.nanoTime();
+            final long current = arrival.get();
+            final long start = current - now > 0 ? current : now;
+            if (arrival.compareAndSet(current, start + intervalNanos)) {
+                final long waitNanos = start - now - toleranceNanos;
+                if (waitNanos > 0)
+                    clock.sleep(TimeUnit.NANOSECONDS.toMillis(waitNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the limiter shared by requests made with the given API key, or null if
+     * none was set up.
+     *
+     * @param apiKey your SendGrid API key
+     * @return the rate limiter for the key
+     */
+    @Nullable
+    public static RateLimiter forApiKey(@NonNull String apiKey) {
+        return LIMITERS.get(apiKey);
+    }
+
+}
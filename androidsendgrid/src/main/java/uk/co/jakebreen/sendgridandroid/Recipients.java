@@ -0,0 +1,215 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static uk.co.jakebreen.sendgridandroid.SendGridMail.EMPTY;
+
+/**
+ * Insertion ordered map of recipient email addresses to names, with at most
+ * {@link #MAX_RECIPIENTS} entries unless another limit is set, kept in two parallel
+ * arrays and an open addressed index instead of one node per entry.
+ *
+ * Addresses differing only in the case of their domain are the same recipient, the
+ * spelling added first is kept and a later name replaces the earlier one. The local
+ * part before the {@code @} is compared as is. Names are interned, so recipients
+ * sharing a name share one string, and a missing name is stored as null and read back
+ * as {@link SendGridMail#EMPTY}.
+ */
+final class Recipients extends AbstractMap<String, String> {
+
+    static final int MAX_RECIPIENTS = 1000;
+
+    private static final String[] NO_STRINGS = new String[0];
+    private static final int[] NO_SLOTS = new int[0];
+
+    private String[] emails = NO_STRINGS;
+    private String[] names = NO_STRINGS;
+    // Index + 1 of the entry in each slot, 0 for an empty slot. A power of two long.
+    private int[] slots = NO_SLOTS;
+    private int size;
+    private int limit = MAX_RECIPIENTS;
+
+    /**
+     * Adds the recipient or replaces the name of an existing one, ignoring new
+     * recipients once full.
+     *
+     * @return the previous name of the recipient, or null if it was not present
+     */
+    @Override
+    public String put(String email, String name) {
+        if (email == null)
+            throw new NullPointerException("email == null");
+        final int hash = hash(email);
+        final int slot = find(email, hash);
+        final String interned = name == null || name.equals(EMPTY) ? null : name.intern();
+        if (slot >= 0 && slots[slot] != 0) {
+            final int index = slots[slot] - 1;
+            final String previous = names[index];
+            names[index] = interned;
+            return previous != null ? previous : EMPTY;
+        }
+        if (size >= limit)
+            return null;
+        if (size == emails.length) {
+            ensureCapacity(size + 1);
+            insert(email, interned, find(email, hash));
+        } else {
+            insert(email, interned, slot);
+        }
+        return null;
+    }
+
+    /**
+     * Adds every recipient of the map, growing the storage once up front.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> recipients) {
+        ensureCapacity(size + recipients.size());
+        for (Map.Entry<? extends String, ? extends String> recipient : recipients.entrySet())
+            put(recipient.getKey(), recipient.getValue());
+    }
+
+    /**
+     * Sets the number of recipients after which new ones are ignored. Lowering it
+     * keeps the recipients already added.
+     */
+    void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Grows the storage to hold the given number of recipients, up to the limit.
+     */
+    void ensureCapacity(int capacity) {
+        capacity = Math.min(capacity, limit);
+        if (capacity <= emails.length)
+            return;
+        // Grow by at least half again, so adding one at a time stays amortised O(1).
+        capacity = Math.min(Math.max(capacity, emails.length + (emails.length >> 1)), limit);
+        emails = Arrays.copyOf(emails, capacity);
+        names = Arrays.copyOf(names, capacity);
+        int slotCount = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        slots = new int[slotCount];
+        for (int i = 0; i < size; i++)
+            slots[find(emails[i], hash(emails[i]))] = i + 1;
+    }
+
+    /**
+     * Returns the recipients from the first index, inclusive, to the second,
+     * exclusive, in the same order.
+     */
+    Recipients slice(int fromIndex, int toIndex) {
+        final Recipients slice = new Recipients();
+        slice.setLimit(Math.max(limit, toIndex - fromIndex));
+        slice.ensureCapacity(toIndex - fromIndex);
+        for (int i = fromIndex; i < toIndex; i++)
+            slice.insert(emails[i], names[i], slice.find(emails[i], hash(emails[i])));
+        return slice;
+    }
+
+    @Override
+    public String get(Object email) {
+        final int index = indexOf(email);
+        if (index < 0)
+            return null;
+        return names[index] != null ? names[index] : EMPTY;
+    }
+
+    @Override
+    public boolean containsKey(Object email) {
+        return indexOf(email) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (next >= size)
+                            throw new NoSuchElementException();
+                        final int index = next++;
+                        return new SimpleImmutableEntry<>(emails[index],
+                                names[index] != null ? names[index] : EMPTY);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int indexOf(Object email) {
+        if (!(email instanceof String) || size == 0)
+            return -1;
+        final int slot = find((String) email, hash((String) email));
+        return slots[slot] - 1;
+    }
+
+    private void insert(String email, String name, int slot) {
+        emails[size] = email;
+        names[size] = name;
+        slots[slot] = ++size;
+    }
+
+    /**
+     * Returns the slot holding the address, or the empty slot where it would go, or
+     * -1 while there are no slots yet.
+     */
+    private int find(String email, int hash) {
+        if (slots.length == 0)
+            return -1;
+        final int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0 && !sameAddress(emails[slots[slot] - 1], email))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Hashes the address with its domain in lower case, without allocating.
+     */
+    private static int hash(String email) {
+        final int at = email.lastIndexOf('@');
+        int hash = 0;
+        for (int i = 0; i < email.length(); i++) {
+            final char c = email.charAt(i);
+            hash = 31 * hash + (i > at ? Character.toLowerCase(c) : c);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean sameAddress(String a, String b) {
+        if (a.length() != b.length())
+            return false;
+        final int at = a.lastIndexOf('@');
+        if (at != b.lastIndexOf('@'))
+            return false;
+        return a.regionMatches(0, b, 0, at + 1)
+                && a.regionMatches(true, at + 1, b, at + 1, a.length() - at - 1);
+    }
+
+}
@@ -0,0 +1,75 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The JSON body of an API request, written straight to the connection.
+ */
+abstract class RequestBody {
+
+    /**
+     * Returns the exact number of bytes {@link #writeTo(OutputStream)} will produce,
+     * or -1 when it is not known up front.
+     *
+     * @return the body length in bytes
+     */
+    abstract long getContentLength() throws IOException;
+
+    /**
+     * Returns the Content-Encoding the body is written in, or null when it is sent as
+     * is.
+     *
+     * @return the content encoding
+     */
+    String getContentEncoding() {
+        return null;
+    }
+
+    /**
+     * Writes the body as UTF-8 to the given stream.
+     *
+     * @param outputStream destination of the body, left open
+     */
+    abstract void writeTo(OutputStream outputStream) throws IOException;
+
+    /**
+     * Writes the body like {@link #writeTo(OutputStream)}, reporting the time spent on
+     * attachment content to the events of the call.
+     *
+     * @param outputStream destination of the body, left open
+     * @param events       the events of the call being made
+     */
+    void writeTo(OutputStream outputStream, CallEvents events) throws IOException {
+        writeTo(outputStream);
+    }
+
+    /**
+     * Writes a stand-in for the body that is the same for two bodies exactly when the
+     * bodies would be, used to recognise duplicate sends. Bodies with attachments write
+     * their fingerprints in place of the encoded content.
+     *
+     * @param outputStream destination of the stand-in, left open
+     */
+    void writeFingerprint(OutputStream outputStream) throws IOException {
+        writeTo(outputStream);
+    }
+
+    /**
+     * Returns a body of the given bytes, for the small JSON requests besides sending mail.
+     */
+    static RequestBody create(final byte[] content) {
+        return new RequestBody() {
+            @Override
+            long getContentLength() {
+                return content.length;
+            }
+
+            @Override
+            void writeTo(OutputStream outputStream) throws IOException {
+                outputStream.write(content);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,156 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether and when a failed request is sent again, set with
+ * {@link SendGrid.Builder#setRetryPolicy(RetryPolicy)}.
+ *
+ * Rate limited (429) and transient server (500, 502, 503, 504) responses, as well as
+ * requests failing with an I/O error, are retried with decorrelated jitter backoff:
+ * each delay is picked at random between the base delay and three times the previous
+ * delay, capped at the maximum delay. When the response carries a Retry-After or
+ * X-RateLimit-Reset header, the request waits at least until then. Retrying stops
+ * after the maximum number of attempts, or when the next attempt would start after
+ * the maximum elapsed time, and the last response or error is returned.
+ *
+ * A request that fails with an I/O error after its body was sent may have been
+ * accepted, so retrying it can deliver the mail twice.
+ */
+public class RetryPolicy {
+
+    /**
+     * Sends every request once, never retrying.
+     */
+    public static final RetryPolicy NONE = new Builder().setMaxAttempts(1).build();
+
+    private static final Random RANDOM = new Random();
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxElapsedMillis;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.maxElapsedMillis = builder.maxElapsedMillis;
+    }
+
+    /**
+     * Returns a {@link Builder} starting from the default policy of 5 attempts, a
+     * 500 millisecond base delay, 30 second maximum delay and 2 minutes in total.
+     *
+     * @return the builder for a retry policy
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    static boolean isRetryable(int code) {
+        return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * Returns the delay before the next attempt, or -1 when no further attempt should
+     * be made.
+     *
+     * @param attempt           the number of attempts made so far
+     * @param previousDelay     the delay before the last attempt, 0 after the first
+     * @param serverDelayMillis the wait the server asked for, or -1
+     * @param elapsedMillis     time spent on the request so far
+     */
+    long nextDelay(int attempt, long previousDelay, long serverDelayMillis, long elapsedMillis) {
+        if (attempt >= maxAttempts)
+            return -1;
+        final long upper = Math.min(maxDelayMillis, Math.max(baseDelayMillis, previousDelay * 3));
+        long delay = baseDelayMillis + (long) (RANDOM.nextDouble() * (upper - baseDelayMillis));
+        if (serverDelayMillis > delay)
+            delay = serverDelayMillis;
+        if (elapsedMillis + delay > maxElapsedMillis)
+            return -1;
+        return delay;
+    }
+
+    public static class Builder {
+
+        private int maxAttempts = 5;
+        private long baseDelayMillis = 500;
+        private long maxDelayMillis = 30 * 1000;
+        private long maxElapsedMillis = 2 * 60 * 1000;
+
+        private Builder() { }
+
+        /**
+         * The total number of times a request is sent, including the first attempt.
+         *
+         * @param maxAttempts the maximum number of attempts, at least 1
+         * @return this builder
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 1)
+                throw new IllegalArgumentException("maxAttempts < 1");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * The shortest delay between two attempts.
+         *
+         * @param delay the base delay
+         * @param unit  the unit of the delay
+         * @return this builder
+         */
+        public Builder setBaseDelay(long delay, @NonNull TimeUnit unit) {
+            if (delay < 0)
+                throw new IllegalArgumentException("delay < 0");
+            this.baseDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * The longest delay backoff grows to, a longer wait asked for by the server
+         * is still honoured.
+         *
+         * @param delay the maximum delay
+         * @param unit  the unit of the delay
+         * @return this builder
+         */
+        public Builder setMaxDelay(long delay, @NonNull TimeUnit unit) {
+            if (delay < 0)
+                throw new IllegalArgumentException("delay < 0");
+            this.maxDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * The time after which no further attempt is started, measured from the start
+         * of the first attempt.
+         *
+         * @param elapsed the maximum elapsed time
+         * @param unit    the unit of the elapsed time
+         * @return this builder
+         */
+        public Builder setMaxElapsed(long elapsed, @NonNull TimeUnit unit) {
+            if (elapsed < 0)
+                throw new IllegalArgumentException("elapsed < 0");
+            this.maxElapsedMillis = unit.toMillis(elapsed);
+            return this;
+        }
+
+        public RetryPolicy build() {
+            if (maxDelayMillis < baseDelayMillis)
+                throw new IllegalStateException("maxDelay < baseDelay");
+            return new RetryPolicy(this);
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Joins identical sends made within a window into a single request. Sends are keyed by
+ * a SHA-256 digest of their body, with attachments standing in by their file or uri
+ * fingerprint rather than their content, so nothing is read or encoded twice.
+ *
+ * A send identical to one in flight waits for it and takes its response, one identical
+ * to a successful send completed within the window takes that response straight away.
+ * An unsuccessful send is forgotten once complete, so it can be retried. The map holds
+ * at most {@link #MAX_ENTRIES} sends, the oldest completed ones are dropped first.
+ */
+final class SendDeduplicator {
+
+    static final int MAX_ENTRIES = 1024;
+
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private final long windowMillis;
+    private final Clock clock;
+    private final LinkedHashMap<ByteBuffer, Entry> entries = new LinkedHashMap<>();
+    private long joinedCount;
+
+    SendDeduplicator(long windowMillis, Clock clock) {
+        this.windowMillis = windowMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Runs the call for the body, unless an identical send is in flight or recently
+     * succeeded, in which case its response is returned. A send waiting for another
+     * is bounded by its own handle, if one is given. A call failing with an exception
+     * fails every send that joined it, each with an exception of its own, unless the
+     * call was cancelled, ran past its deadline or was interrupted, in which case the
+     * sends that joined it go on to make the request themselves.
+     */
+    SendGridResponse execute(RequestBody body, CallHandle handle, Callable<SendGridResponse> call) throws Exception {
+        final ByteBuffer key = ByteBuffer.wrap(digest(body));
+        if (handle != null)
+            handle.start(clock);
+        while (true) {
+            final Entry entry;
+            final boolean leader;
+            synchronized (this) {
+                final long now = clock.currentTimeMillis();
+                evict(now);
+                final Entry existing = entries.get(key);
+                if (existing != null && !existing.isExpired(now, windowMillis)) {
+                    joinedCount++;
+                    entry = existing;
+                    leader = false;
+                } else {
+                    entry = new Entry();
+                    entries.put(key, entry);
+                    leader = true;
+                }
+            }
+            if (leader)
+                return lead(key, entry, handle, call);
+            final SendGridResponse response = entry.await(handle);
+            if (response != null)
+                return response;
+        }
+    }
+
+    private SendGridResponse lead(ByteBuffer key, Entry entry, CallHandle handle,
+                                  Callable<SendGridResponse> call) throws Exception {
+        SendGridResponse response = null;
+        Exception failure = null;
+        try {
+            response = call.call();
+            return response;
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            final boolean abandoned = failure instanceof InterruptedException
+                    || (failure != null && handle != null && handle.isAborted());
+            synchronized (this) {
+                if (response != null && response.isSuccessful())
+                    entry.completedAt = clock.currentTimeMillis();
+                else if (entries.get(key) == entry)
+                    entries.remove(key);
+            }
+            entry.complete(response, failure, abandoned);
+        }
+    }
+
+    synchronized long getJoinedCount() {
+        return joinedCount;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops the oldest completed sends while the map is full, then those older than the
+     * window. Entries are in the order they were sent, so expired ones are at the front
+     * and the scan stops at the first completed send still within the window. One that
+     * completed out of order is left for a later pass, it is never joined once expired.
+     */
+    private void evict(long now) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        int excess = entries.size() - MAX_ENTRIES + 1;
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.completedAt < 0)
+                continue;
+            if (excess <= 0 && !entry.isExpired(now, windowMillis))
+                return;
+            iterator.remove();
+            excess--;
+        }
+    }
+
+    private static byte[] digest(RequestBody body) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        body.writeFingerprint(new DigestOutputStream(NULL_OUTPUT, digest));
+        return digest.digest();
+    }
+
+    private static final class Entry {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile SendGridResponse response;
+        private volatile Exception failure;
+        private volatile boolean abandoned;
+        long completedAt = -1;
+
+        boolean isExpired(long now, long windowMillis) {
+            return completedAt >= 0 && now - completedAt >= windowMillis;
+        }
+
+        void complete(SendGridResponse response, Exception failure, boolean abandoned) {
+            this.response = response;
+            this.failure = failure;
+            this.abandoned = abandoned;
+            done.countDown();
+        }
+
+        /**
+         * Waits for the send and returns its response, or null if it was abandoned and
+         * should be made again.
+         */
+        SendGridResponse await(CallHandle handle) throws Exception {
+            if (handle != null)
+                handle.await(done);
+            else
+                done.await();
+            if (abandoned)
+                return null;
+            if (failure != null)
+                throw new IOException(failure.getMessage(), failure);
+            return response;
+        }
+    }
+
+}
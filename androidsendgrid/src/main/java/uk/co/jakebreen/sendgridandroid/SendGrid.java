@@ -2,18 +2,73 @@ package uk.co.jakebreen.sendgridandroid;
 
 import androidx.annotation.NonNull;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public class SendGrid {
 
     private static final String MAIL_URL = "mail/send";
+    private static final String BATCH_URL = "mail/batch";
+    private static final String SCHEDULED_SENDS_URL = "user/scheduled_sends";
+    private static final String KEY_BATCH_ID = "batch_id";
+    private static final String KEY_STATUS = "status";
+    private static final String STATUS_CANCEL = "cancel";
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
 
+    private final String apiKey;
     private String credentials;
     private SendGridCall api;
+    private final Dispatcher dispatcher;
+    private final AttachmentCache attachmentCache;
+    private final Executor callbackExecutor;
+    private final Clock clock;
+    private final SendDeduplicator deduplicator;
 
-    private SendGrid(String apiKey) {
-        this.credentials = createCredentials(apiKey);
-        api = new SendGridCall();
+    private SendGrid(Builder builder) {
+        this.apiKey = builder.apiKey;
+        this.credentials = createCredentials(builder.apiKey);
+        if (builder.permitsPerSecond > 0)
+            RateLimiter.register(builder.apiKey, builder.permitsPerSecond, builder.burst, builder.clock);
+        // Keep at least one idle connection per worker so a busy pool stays warm.
+        final int maxIdleConnections = builder.maxIdleConnections < 0 && builder.maxConcurrentRequests > 0
+                ? builder.maxConcurrentRequests
+                : builder.maxIdleConnections;
+        ConnectionPool.configure(maxIdleConnections, builder.keepAliveDurationMillis);
+        if (builder.bufferLeakDetection)
+            BufferPool.shared().setLeakDetection(true);
+        api = builder.api != null ? builder.api : new SendGridCall();
+        if (builder.retryPolicy != null)
+            api.setRetryPolicy(builder.retryPolicy, builder.clock);
+        if (builder.eventListener != null)
+            api.setEventListener(builder.eventListener);
+        if (builder.compressionThreshold >= 0)
+            api.setCompressionThreshold(builder.compressionThreshold);
+        if (builder.connectTimeoutMillis >= 0 || builder.readTimeoutMillis >= 0)
+            api.setTimeouts(
+                    builder.connectTimeoutMillis >= 0
+                            ? builder.connectTimeoutMillis
+                            : SendGridCall.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                    builder.readTimeoutMillis >= 0
+                            ? builder.readTimeoutMillis
+                            : SendGridCall.DEFAULT_READ_TIMEOUT_MILLIS);
+        clock = builder.clock;
+        deduplicator = builder.deduplicationWindowMillis > 0
+                ? new SendDeduplicator(builder.deduplicationWindowMillis, builder.clock)
+                : null;
+        attachmentCache = builder.attachmentCache;
+        callbackExecutor = builder.callbackExecutor != null
+                ? builder.callbackExecutor
+                : Runnable::run;
+        dispatcher = new Dispatcher(builder.maxConcurrentRequests > 0
+                ? builder.maxConcurrentRequests
+                : DEFAULT_MAX_CONCURRENT_REQUESTS);
     }
 
     /**
@@ -24,7 +79,17 @@ public class SendGrid {
      * @return the SendGrid instance tied to your API key
      */
     public static SendGrid create(@NonNull String apiKey) {
-        return new SendGrid(apiKey);
+        return builder(apiKey).build();
+    }
+
+    /**
+     * Returns a {@link Builder} to configure a SendGrid instance tied to your API key.
+     *
+     * @param apiKey your SendGrid API key
+     * @return the builder for the SendGrid instance
+     */
+    public static Builder builder(@NonNull String apiKey) {
+        return new Builder(apiKey);
     }
 
     /**
@@ -39,10 +104,581 @@ public class SendGrid {
      * @return the response generated from the API request
      */
     public Callable<SendGridResponse> send(@NonNull SendGridMail mail) {
-        return api.call(MAIL_URL, credentials, SendGridMailBody.create(mail));
+        final SendGridMailBody body = createBody(mail);
+        return deduplicate(body, null, api.call(MAIL_URL, credentials, body, RateLimiter.forApiKey(apiKey)));
+    }
+
+    /**
+     * Like {@link #send(SendGridMail)}, but the call fails once it has taken longer than
+     * the timeout in total, across connecting, uploading, reading the response and any
+     * retries. A call past its deadline throws an {@code InterruptedIOException}.
+     *
+     * @param mail    the SendGridMail to send to the API
+     * @param timeout the longest the call may take
+     * @param unit    the unit of the timeout
+     * @return the response generated from the API request
+     */
+    public Callable<SendGridResponse> send(@NonNull SendGridMail mail, long timeout, @NonNull TimeUnit unit) {
+        final SendGridMailBody body = createBody(mail);
+        final CallHandle handle = new CallHandle(toTimeoutNanos(timeout, unit));
+        return deduplicate(body, handle,
+                api.call(MAIL_URL, credentials, body, RateLimiter.forApiKey(apiKey), handle));
+    }
+
+    /**
+     * Sends a mail made of the prototype and the recipients of the given mail, any
+     * other content of that mail is ignored. The prototype's content is not
+     * serialized again, which makes sending one mail to many recipients cheaper.
+     *
+     * @param prototype  the content of the mail
+     * @param recipients the mail holding the recipients, carbon copies and blind
+     *                   carbon copies to send to
+     * @return the response generated from the API request
+     */
+    public Callable<SendGridResponse> send(@NonNull SendGridMailPrototype prototype,
+                                           @NonNull SendGridMail recipients) {
+        final RequestBody body = createBody(prototype, recipients);
+        return deduplicate(body, null, api.call(MAIL_URL, credentials, body, RateLimiter.forApiKey(apiKey)));
+    }
+
+    /**
+     * Sends the mail on this instance's bounded worker pool and returns immediately
+     * with a {@link SendGridFuture} of its response, replacing {@link SendTask}.
+     *
+     * A send that fails with an exception completes with an unsuccessful response
+     * with code 0, the future never throws.
+     *
+     * @param mail the SendGridMail to send to the API
+     * @return the pending response
+     */
+    public SendGridFuture sendAsync(@NonNull SendGridMail mail) {
+        return sendAsync(mail, new CallHandle(0));
+    }
+
+    /**
+     * Sends the mail like {@link #sendAsync(SendGridMail)}, completing with an
+     * unsuccessful response once the timeout has passed since this call, including
+     * any time spent waiting for a free worker.
+     *
+     * Cancelling the future stops the send between buffers of the upload and closes
+     * its connection.
+     *
+     * @param mail    the SendGridMail to send to the API
+     * @param timeout the longest the send may take
+     * @param unit    the unit of the timeout
+     * @return the pending response
+     */
+    public SendGridFuture sendAsync(@NonNull SendGridMail mail, long timeout, @NonNull TimeUnit unit) {
+        return sendAsync(mail, new CallHandle(toTimeoutNanos(timeout, unit)));
+    }
+
+    /**
+     * Sends the mail like {@link #sendAsync(SendGridMail)} and calls back with the
+     * response on the executor set with {@link Builder#setCallbackExecutor(Executor)}.
+     *
+     * @param mail     the SendGridMail to send to the API
+     * @param callback the callback receiving the response
+     * @return the pending response
+     */
+    public SendGridFuture sendAsync(@NonNull SendGridMail mail, @NonNull SendGridFuture.Callback callback) {
+        return sendAsync(mail).addCallback(callback);
+    }
+
+    /**
+     * Sends every mail in the collection on this instance's bounded worker pool and
+     * returns immediately with a {@link SendGridBatch} to follow their progress.
+     *
+     * At most {@link Builder#setMaxConcurrentRequests(int)} requests are in flight at
+     * once, across all batches sent through this instance, each reusing a kept-alive
+     * connection where one is available. A mail that fails with an exception gets an
+     * unsuccessful response with code 0 instead of stopping the batch.
+     *
+     * @param mails the mails to send
+     * @return the handle on the batch of sends
+     */
+    public SendGridBatch sendAll(@NonNull Collection<SendGridMail> mails) {
+        for (SendGridMail mail : mails)
+            mail.checkUnsplit();
+        final SendGridBatch batch = new SendGridBatch(mails, null);
+        batch.start(this, dispatcher.getExecutor(), dispatcher.getMaxConcurrentRequests());
+        return batch;
+    }
+
+    /**
+     * Sends the prototype to the recipients of every mail in the collection, like
+     * {@link #sendAll(Collection)} does with whole mails.
+     *
+     * @param prototype  the content of the mails
+     * @param recipients the mails holding the recipients of each send
+     * @return the handle on the batch of sends
+     */
+    public SendGridBatch sendAll(@NonNull SendGridMailPrototype prototype,
+                                 @NonNull Collection<SendGridMail> recipients) {
+        final SendGridBatch batch = new SendGridBatch(recipients, prototype);
+        batch.start(this, dispatcher.getExecutor(), dispatcher.getMaxConcurrentRequests());
+        return batch;
+    }
+
+    /**
+     * Sends a mail to any number of recipients, spread over as many requests as the
+     * API's limit of 1000 recipients per request takes, like {@link #sendAll(Collection)}
+     * does with separate mails. Every request carries the same content, serialized
+     * once, and a share of each of the recipients, carbon copies and blind carbon
+     * copies, in the order they were added. Enable
+     * {@link SendGridMail#setRecipientSplitting(boolean)} on the mail to add more than
+     * 1000 of each.
+     *
+     * @param mail the mail to send
+     * @return the handle on the batch, with one response per request
+     * @throws IllegalArgumentException if there are fewer recipients than requests
+     *                                  needed, as each request needs at least one
+     */
+    public SendGridBatch sendSplit(@NonNull SendGridMail mail) {
+        return sendAll(SendGridMailPrototype.from(mail), mail.splitRecipients());
+    }
+
+    /**
+     * Returns a {@link SendGridCoalescer} that merges mails differing only in their
+     * recipients into shared requests, sent on this instance's worker pool.
+     *
+     * @param window              how long the first mail of a group waits for others
+     * @param unit                the unit of the window
+     * @param maxPersonalizations the number of mails after which a group is sent
+     *                            straight away, at most 1000
+     * @return the coalescing dispatcher
+     */
+    public SendGridCoalescer createCoalescer(long window, @NonNull TimeUnit unit, int maxPersonalizations) {
+        if (window < 0)
+            throw new IllegalArgumentException("window < 0");
+        if (maxPersonalizations < 1 || maxPersonalizations > SendGridCoalescer.MAX_PERSONALIZATIONS)
+            throw new IllegalArgumentException("maxPersonalizations must be between 1 and 1000");
+        return new SendGridCoalescer(this, dispatcher.getExecutor(), dispatcher.getScheduler(),
+                unit.toMillis(window), maxPersonalizations);
+    }
+
+    /**
+     * Opens, or creates, a durable {@link SendGridOutbox} in the given directory whose
+     * mails are sent through this instance once {@link SendGridOutbox#start()} is
+     * called. Only one outbox may be open on a directory at a time.
+     *
+     * @param directory private directory holding the outbox log, such as one inside
+     *                  {@code Context.getFilesDir()}
+     * @return the outbox, with any mails left from a previous process pending
+     */
+    public SendGridOutbox createOutbox(@NonNull File directory) throws IOException {
+        return new SendGridOutbox(this, directory);
+    }
+
+    /**
+     * Returns a {@link SendGridScheduler} that holds mails on the device until they are
+     * due, then sends them on this instance's worker pool. Mails due within the same
+     * tick are sent together.
+     *
+     * @param tick the resolution mails are scheduled with, such as a second
+     * @param unit the unit of the tick
+     * @return the scheduler
+     */
+    public SendGridScheduler createScheduler(long tick, @NonNull TimeUnit unit) {
+        return createScheduler(tick, unit, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a {@link SendGridScheduler} like {@link #createScheduler(long, TimeUnit)}
+     * that hands each mail over to SendGrid, with its send time and a batch id it can be
+     * cancelled by, once it is due within the horizon.
+     *
+     * @param tick        the resolution mails are scheduled with, such as a second
+     * @param unit        the unit of the tick
+     * @param horizon     how long before it is due a mail is handed off, at most 72
+     *                    hours, zero to never hand mails off
+     * @param horizonUnit the unit of the horizon
+     * @return the scheduler
+     */
+    public SendGridScheduler createScheduler(long tick, @NonNull TimeUnit unit,
+                                             long horizon, @NonNull TimeUnit horizonUnit) {
+        final long tickMillis = unit.toMillis(tick);
+        if (tickMillis < 1)
+            throw new IllegalArgumentException("tick must be at least a millisecond");
+        final long horizonMillis = horizonUnit.toMillis(horizon);
+        if (horizonMillis < 0 || horizonMillis > SendGridScheduler.MAX_HAND_OFF_MILLIS)
+            throw new IllegalArgumentException("horizon must be between 0 and 72 hours");
+        return new SendGridScheduler(this, dispatcher.getExecutor(), dispatcher.getScheduler(), clock,
+                dispatcher.getMaxConcurrentRequests(), tickMillis, horizonMillis);
+    }
+
+    private SendGridFuture sendAsync(SendGridMail mail, final CallHandle handle) {
+        final SendGridFuture future = new SendGridFuture(callbackExecutor, handle);
+        final SendGridMailBody body = createBody(mail);
+        handle.setExpiryAction(() -> future.complete(
+                SendGridResponse.Factory.failure(new InterruptedIOException("Deadline exceeded"))));
+        handle.start(clock);
+        dispatcher.getExecutor().execute(() -> {
+            if (!future.isDone())
+                future.complete(execute(body, handle));
+        });
+        return future;
+    }
+
+    /**
+     * Routes the call through the deduplicator, if deduplication is enabled. The handle
+     * of the call, if it has one, also bounds waiting for an identical send.
+     */
+    private Callable<SendGridResponse> deduplicate(RequestBody body, CallHandle handle,
+                                                   Callable<SendGridResponse> call) {
+        if (deduplicator == null)
+            return call;
+        return () -> deduplicator.execute(body, handle, call);
+    }
+
+    private static long toTimeoutNanos(long timeout, TimeUnit unit) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("timeout <= 0");
+        return unit.toNanos(timeout);
+    }
+
+    SendGridFuture newFuture() {
+        return new SendGridFuture(callbackExecutor, null);
+    }
+
+    SendGridFuture newFuture(Runnable onCancel) {
+        return new SendGridFuture(callbackExecutor, null, onCancel);
+    }
+
+    SendGridMailBody createBody(SendGridMail mail) {
+        mail.checkUnsplit();
+        return SendGridMailBody.create(mail, attachmentCache);
+    }
+
+    SendGridMailBody createBody(List<SendGridMail> mails) {
+        return SendGridMailBody.create(mails, attachmentCache);
+    }
+
+    RequestBody createBody(SendGridMailPrototype prototype, SendGridMail recipients) {
+        return prototype.createBody(recipients, attachmentCache);
+    }
+
+    SendGridResponse execute(SendGridMail mail) {
+        return execute(createBody(mail));
+    }
+
+    SendGridResponse execute(RequestBody body) {
+        return execute(body, null);
+    }
+
+    SendGridResponse execute(RequestBody body, CallHandle handle) {
+        try {
+            return deduplicate(body, handle, api.call(MAIL_URL, credentials, body, RateLimiter.forApiKey(apiKey), handle)).call();
+        } catch (Exception e) {
+            return SendGridResponse.Factory.failure(e);
+        }
+    }
+
+    /**
+     * Creates a batch id that scheduled sends can be grouped and cancelled by.
+     *
+     * @throws IOException if the request fails, or the API returns an error or no batch id
+     */
+    String createBatchId() throws IOException {
+        final SendGridResponse response;
+        try {
+            response = api.call(BATCH_URL, credentials, RequestBody.create(new byte[0]),
+                    RateLimiter.forApiKey(apiKey), null, true).call();
+        } catch (IOException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        if (!response.isSuccessful())
+            throw new IOException(response.getErrorMessage());
+        final String batchId;
+        try {
+            batchId = JsonReader.parseString(response.getBody(), KEY_BATCH_ID);
+        } catch (JsonReader.MalformedJsonException e) {
+            throw new IOException(e.getMessage());
+        }
+        if (batchId == null)
+            throw new IOException("No batch id in response");
+        return batchId;
+    }
+
+    /**
+     * Cancels every scheduled send of the batch that has not gone out yet.
+     */
+    SendGridResponse cancelScheduledSend(String batchId) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final JsonWriter writer = new JsonWriter(outputStream);
+        try {
+            writer.beginObject()
+                    .name(KEY_BATCH_ID).value(batchId)
+                    .name(KEY_STATUS).value(STATUS_CANCEL)
+                    .endObject();
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            writer.release();
+        }
+        try {
+            return api.call(SCHEDULED_SENDS_URL, credentials, RequestBody.create(outputStream.toByteArray()),
+                    RateLimiter.forApiKey(apiKey)).call();
+        } catch (Exception e) {
+            return SendGridResponse.Factory.failure(e);
+        }
     }
 
     private String createCredentials(String key) {
         return String.format("Bearer %s", key);
     }
+
+    public static class Builder {
+
+        private final String apiKey;
+        private int maxIdleConnections = -1;
+        private long keepAliveDurationMillis = -1;
+        private int maxConcurrentRequests = -1;
+        private RetryPolicy retryPolicy;
+        private double permitsPerSecond;
+        private int burst;
+        private long compressionThreshold = -1;
+        private AttachmentCache attachmentCache;
+        private EventListener eventListener;
+        private Executor callbackExecutor;
+        private int connectTimeoutMillis = -1;
+        private int readTimeoutMillis = -1;
+        private boolean bufferLeakDetection;
+        private long deduplicationWindowMillis;
+        private Clock clock = Clock.SYSTEM;
+        private SendGridCall api;
+
+        private Builder(String apiKey) {
+            this.apiKey = apiKey;
+        }
+
+        /**
+         * The number of idle connections to sendgrid.com kept open for reuse, saving a
+         * TCP and TLS handshake on each following send. Zero disables keep-alive.
+         *
+         * The connection pool is shared by the whole process and only picks up this
+         * setting if applied before the first request is made.
+         *
+         * @param maxIdleConnections the maximum number of idle connections
+         * @return this builder
+         */
+        public Builder setMaxIdleConnections(int maxIdleConnections) {
+            if (maxIdleConnections < 0)
+                throw new IllegalArgumentException("maxIdleConnections < 0");
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * How long an idle connection is kept open for reuse. Like
+         * {@link #setMaxIdleConnections(int)} this applies to the whole process.
+         *
+         * @param duration the keep-alive duration
+         * @param unit     the unit of the duration
+         * @return this builder
+         */
+        public Builder setKeepAliveDuration(long duration, @NonNull TimeUnit unit) {
+            if (duration < 0)
+                throw new IllegalArgumentException("duration < 0");
+            this.keepAliveDurationMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * The maximum number of requests this instance sends in parallel through
+         * {@link SendGrid#sendAll(Collection)}, defaults to 4. Unless set explicitly, the
+         * number of idle connections kept alive is raised to match.
+         *
+         * @param maxConcurrentRequests the size of the worker pool
+         * @return this builder
+         */
+        public Builder setMaxConcurrentRequests(int maxConcurrentRequests) {
+            if (maxConcurrentRequests < 1)
+                throw new IllegalArgumentException("maxConcurrentRequests < 1");
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        /**
+         * How requests failing with a rate limit, a transient server error or an I/O
+         * error are retried, by default they are not.
+         *
+         * @param retryPolicy the retry policy, such as one from {@link RetryPolicy#builder()}
+         * @return this builder
+         */
+        public Builder setRetryPolicy(@NonNull RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Limits the rate of requests made with this API key by every SendGrid instance
+         * in the process, including ones created without a limit, so together they stay
+         * under the account's limits. The first limit set for an API key applies.
+         *
+         * @param permitsPerSecond the steady number of requests per second
+         * @param burst            the number of requests that may be made at once
+         * @return this builder
+         */
+        public Builder setRateLimit(double permitsPerSecond, int burst) {
+            if (!(permitsPerSecond > 0))
+                throw new IllegalArgumentException("permitsPerSecond <= 0");
+            if (burst < 1)
+                throw new IllegalArgumentException("burst < 1");
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+            return this;
+        }
+
+        /**
+         * Sends request bodies of at least the given size gzip compressed, shrinking
+         * large HTML content and text attachments on slow connections. Compression is
+         * streamed while the body is written, smaller bodies are sent as is.
+         *
+         * @param minimumBytes the smallest body size in bytes that is compressed
+         * @return this builder
+         */
+        public Builder setCompressionThreshold(long minimumBytes) {
+            if (minimumBytes < 0)
+                throw new IllegalArgumentException("minimumBytes < 0");
+            this.compressionThreshold = minimumBytes;
+            return this;
+        }
+
+        /**
+         * Takes the base64 content of attachments from the given cache, so a file
+         * attached to many mails is only read and encoded once. A cache may be shared
+         * by several instances.
+         *
+         * @param attachmentCache the cache, such as one from {@link AttachmentCache#builder()}
+         * @return this builder
+         */
+        public Builder setAttachmentCache(@NonNull AttachmentCache attachmentCache) {
+            this.attachmentCache = attachmentCache;
+            return this;
+        }
+
+        /**
+         * Reports the phases and timings of every request to the listener, such as a
+         * {@link SendGridMetrics}. Without one no timings are taken.
+         *
+         * @param eventListener the listener
+         * @return this builder
+         */
+        public Builder setEventListener(@NonNull EventListener eventListener) {
+            this.eventListener = eventListener;
+            return this;
+        }
+
+        /**
+         * How long connecting to the API may take before the attempt fails, defaults
+         * to 10 seconds. Zero waits forever.
+         *
+         * @param timeout the connect timeout
+         * @param unit    the unit of the timeout
+         * @return this builder
+         */
+        public Builder setConnectTimeout(long timeout, @NonNull TimeUnit unit) {
+            this.connectTimeoutMillis = toTimeoutMillis(timeout, unit);
+            return this;
+        }
+
+        /**
+         * How long a read of the response may block before the attempt fails, defaults
+         * to 30 seconds. Zero waits forever.
+         *
+         * @param timeout the read timeout
+         * @param unit    the unit of the timeout
+         * @return this builder
+         */
+        public Builder setReadTimeout(long timeout, @NonNull TimeUnit unit) {
+            this.readTimeoutMillis = toTimeoutMillis(timeout, unit);
+            return this;
+        }
+
+        private static int toTimeoutMillis(long timeout, TimeUnit unit) {
+            if (timeout < 0)
+                throw new IllegalArgumentException("timeout < 0");
+            final long millis = unit.toMillis(timeout);
+            if (millis > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("timeout too large");
+            if (millis == 0 && timeout > 0)
+                throw new IllegalArgumentException("timeout too small");
+            return (int) millis;
+        }
+
+        /**
+         * The executor callbacks of {@link SendGridFuture} run on unless another is
+         * given, such as one posting to the main thread's {@code Handler}. By default
+         * callbacks run on the worker thread that completed the send.
+         *
+         * @param callbackExecutor the executor running callbacks
+         * @return this builder
+         */
+        public Builder setCallbackExecutor(@NonNull Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * Reports buffers borrowed from the library's shared buffer pool that are
+         * never returned, logging where they were borrowed. Each borrow then records a
+         * stack trace, so only enable it in debug builds, for example with
+         * {@code BuildConfig.DEBUG}. Like the buffer pool it applies to the whole
+         * process.
+         *
+         * @param enabled whether to track borrowed buffers
+         * @return this builder
+         */
+        public Builder setBufferLeakDetection(boolean enabled) {
+            this.bufferLeakDetection = enabled;
+            return this;
+        }
+
+        /**
+         * Joins sends of identical mails into one request: a send identical to one in
+         * flight waits for and shares its response, and one identical to a send that
+         * succeeded within the window gets that response without a request being made.
+         * Unsuccessful sends are not remembered, so they can be retried straight away.
+         *
+         * Mails are compared by their serialized body, attachments by their path or
+         * uri, size and modification time, so a mail meant to go out twice must
+         * differ in some way, such as its send time. Deduplication is off by default,
+         * a window of zero turns it off again.
+         *
+         * @param window how long a successful send is remembered
+         * @param unit   the unit of the window
+         * @return this builder
+         */
+        public Builder setDeduplication(long window, @NonNull TimeUnit unit) {
+            if (window < 0)
+                throw new IllegalArgumentException("window < 0");
+            this.deduplicationWindowMillis = unit.toMillis(window);
+            return this;
+        }
+
+        Builder setClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        Builder setApi(SendGridCall api) {
+            this.api = api;
+            return this;
+        }
+
+        /**
+         * Returns the SendGrid instance configured by this builder.
+         *
+         * @return the SendGrid instance tied to your API key
+         */
+        public SendGrid build() {
+            return new SendGrid(this);
+        }
+    }
 }
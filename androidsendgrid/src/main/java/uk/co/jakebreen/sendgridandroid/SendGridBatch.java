@@ -0,0 +1,153 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Handle on a group of mails sent with {@link SendGrid#sendAll(Collection)}.
+ *
+ * The mails are worked through by at most the instance's configured number of
+ * concurrent requests, each worker taking the next unsent mail as soon as its
+ * previous send completes. Responses are reported in the order the mails were given.
+ */
+public class SendGridBatch {
+
+    private final List<SendGridMail> mails;
+    private final SendGridMailPrototype prototype;
+    private final List<SendGridFuture> futures;
+    private final AtomicReferenceArray<SendGridResponse> responses;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger successCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private final CountDownLatch remaining;
+
+    /**
+     * @param prototype the content sent to the recipients of each mail, or null to
+     *                  send the mails as they are
+     */
+    SendGridBatch(Collection<SendGridMail> mails, SendGridMailPrototype prototype) {
+        this(mails, prototype, null);
+    }
+
+    /**
+     * @param futures completed with the response of the mail at the same index, a mail
+     *                whose future is cancelled before its send starts is not sent
+     */
+    SendGridBatch(Collection<SendGridMail> mails, SendGridMailPrototype prototype,
+                  List<SendGridFuture> futures) {
+        this.mails = new ArrayList<>(mails);
+        this.prototype = prototype;
+        this.futures = futures;
+        this.responses = new AtomicReferenceArray<>(this.mails.size());
+        this.remaining = new CountDownLatch(this.mails.size());
+    }
+
+    void start(final SendGrid sendGrid, Executor executor, int maxConcurrentRequests) {
+        final int workers = Math.min(maxConcurrentRequests, mails.size());
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < mails.size()) {
+                    final SendGridMail mail = mails.get(index);
+                    if (futures != null && futures.get(index).isCancelled()) {
+                        complete(index, SendGridResponse.Factory.failure(new InterruptedIOException("Canceled")));
+                        continue;
+                    }
+                    complete(index, prototype != null
+                            ? sendGrid.execute(sendGrid.createBody(prototype, mail))
+                            : sendGrid.execute(mail));
+                }
+            });
+        }
+    }
+
+    private void complete(int index, SendGridResponse response) {
+        responses.set(index, response);
+        if (futures != null)
+            futures.get(index).complete(response);
+        if (response.isSuccessful())
+            successCount.incrementAndGet();
+        else
+            failureCount.incrementAndGet();
+        remaining.countDown();
+    }
+
+    /**
+     * Returns the number of mails in this batch.
+     *
+     * @return the number of mails
+     */
+    public int size() {
+        return responses.length();
+    }
+
+    /**
+     * Returns true once every mail in the batch has a response.
+     *
+     * @return the completion state of the batch
+     */
+    public boolean isDone() {
+        return remaining.getCount() == 0;
+    }
+
+    /**
+     * Returns the number of mails that have been sent successfully so far.
+     *
+     * @return successful send count
+     */
+    public int getSuccessCount() {
+        return successCount.get();
+    }
+
+    /**
+     * Returns the number of mails that have failed so far.
+     *
+     * @return failed send count
+     */
+    public int getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Blocks until every mail in the batch has a response.
+     *
+     * @return the responses, in the order the mails were given
+     */
+    public List<SendGridResponse> await() throws InterruptedException {
+        remaining.await();
+        return getResponses();
+    }
+
+    /**
+     * Blocks until every mail in the batch has a response or the timeout elapses.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true when the batch completed before the timeout
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return remaining.await(timeout, unit);
+    }
+
+    /**
+     * Returns the responses received so far without blocking, with null in place of
+     * mails that are still being sent.
+     *
+     * @return the responses, in the order the mails were given
+     */
+    public List<SendGridResponse> getResponses() {
+        final List<SendGridResponse> list = new ArrayList<>(responses.length());
+        for (int i = 0; i < responses.length(); i++)
+            list.add(responses.get(i));
+        return Collections.unmodifiableList(list);
+    }
+
+}
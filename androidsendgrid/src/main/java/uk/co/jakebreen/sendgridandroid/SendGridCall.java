@@ -1,63 +1,414 @@
 package uk.co.jakebreen.sendgridandroid;
 
-import java.io.*;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.concurrent.Callable;
 
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocketFactory;
+
 import static uk.co.jakebreen.sendgridandroid.SendGridResponse.Factory.error;
 import static uk.co.jakebreen.sendgridandroid.SendGridResponse.Factory.success;
 
 class SendGridCall {
 
     private static final String BASE_URL = "https://sendgrid.com/v3/";
+    private static final int DRAIN_BUFFER_SIZE = 2 * 1024;
+    private static final int MAX_BODY = 64 * 1024;
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final String baseUrl;
+    private final SSLSocketFactory sslSocketFactory;
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+    private Clock clock = Clock.SYSTEM;
+    private long compressionThreshold = -1;
+    private EventListener eventListener = EventListener.NONE;
+    private SSLSocketFactory connectionSocketFactory;
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    SendGridCall() {
+        this(BASE_URL, null);
+    }
+
+    /**
+     * Creates a call factory against another endpoint, used to point requests at a
+     * local stand-in server. The same socket factory instance must be reused for
+     * every request, connections are only pooled per factory.
+     */
+    SendGridCall(String baseUrl, SSLSocketFactory sslSocketFactory) {
+        this.baseUrl = baseUrl;
+        this.sslSocketFactory = sslSocketFactory;
+        this.connectionSocketFactory = sslSocketFactory;
+    }
+
+    /**
+     * Sets how failed requests are retried, applied before the first call is made.
+     */
+    void setRetryPolicy(RetryPolicy retryPolicy, Clock clock) {
+        this.retryPolicy = retryPolicy;
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the body size from which requests are sent gzip compressed, or -1 to never
+     * compress, applied before the first call is made.
+     */
+    void setCompressionThreshold(long compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Sets how long connecting and each read of the response may block, 0 waiting
+     * forever, applied before the first call is made.
+     */
+    void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Sets the listener told about every call, applied before the first call is made.
+     * Connections are then made through a socket factory that reports new sockets.
+     */
+    void setEventListener(EventListener eventListener) {
+        this.eventListener = eventListener;
+        this.connectionSocketFactory = new InstrumentedSocketFactory(sslSocketFactory != null
+                ? sslSocketFactory
+                : HttpsURLConnection.getDefaultSSLSocketFactory());
+    }
+
+    Callable<SendGridResponse> call(String url, String key, RequestBody body) {
+        return call(url, key, body, null);
+    }
+
+    Callable<SendGridResponse> call(String url, String key, RequestBody body, RateLimiter rateLimiter) {
+        return call(url, key, body, rateLimiter, null);
+    }
 
-    Callable<SendGridResponse> call(String url, final String key, SendGridMailBody body) {
-        final String apiUrl = String.format("%s%s", BASE_URL, url);
+    /**
+     * Returns the call for a request, taking a permit from the rate limiter, if one is
+     * given, before each attempt. The handle, if one is given, bounds the call with a
+     * deadline and lets it be cancelled from another thread.
+     */
+    Callable<SendGridResponse> call(String url, String key, RequestBody body, RateLimiter rateLimiter,
+                                    CallHandle callHandle) {
+        return call(url, key, body, rateLimiter, callHandle, false);
+    }
+
+    /**
+     * Returns the call for a request like the one above, keeping the body of a
+     * successful response if asked to, such as one holding a created id. Otherwise the
+     * body is drained unread, as sending mail returns nothing worth keeping.
+     */
+    Callable<SendGridResponse> call(String url, final String key, final RequestBody body,
+                                    final RateLimiter rateLimiter, final CallHandle callHandle,
+                                    final boolean keepBody) {
+        final String apiUrl = String.format("%s%s", baseUrl, url);
         return () -> {
-            final URL url1 = new URL(apiUrl);
-            final HttpURLConnection urlConnection = (HttpURLConnection) url1.openConnection();
+            final CallHandle handle = callHandle != null ? callHandle : new CallHandle(0);
+            handle.start(clock);
+            handle.enter();
+            try {
+                if (eventListener == EventListener.NONE)
+                    return send(apiUrl, key, body, rateLimiter, handle, keepBody, null);
+
+                final CallEvents events = new CallEvents(eventListener);
+                final long start = System.nanoTime();
+                eventListener.callStart(events.callId);
+                try {
+                    final SendGridResponse response = send(apiUrl, key, body, rateLimiter, handle, keepBody, events);
+                    eventListener.callEnd(events.callId, response, System.nanoTime() - start);
+                    return response;
+                } catch (Exception exception) {
+                    eventListener.callFailed(events.callId, exception, System.nanoTime() - start);
+                    throw exception;
+                }
+            } finally {
+                handle.exit();
+            }
+        };
+    }
+
+    private SendGridResponse send(String apiUrl, String key, RequestBody body, RateLimiter rateLimiter,
+                                  CallHandle handle, boolean keepBody, CallEvents events)
+            throws IOException, InterruptedException {
+        final long serializeStart = events != null ? System.nanoTime() : 0;
+        final long contentLength = body.getContentLength();
+        if (events != null)
+            eventListener.bodySerialized(events.callId, contentLength, System.nanoTime() - serializeStart);
+        checkBodySize(contentLength);
+
+        final long start = clock.currentTimeMillis();
+        long delay = 0;
+        for (int attempt = 1; ; attempt++) {
+            if (rateLimiter != null)
+                rateLimiter.acquire();
+            final Attempt result;
+            try {
+                result = execute(apiUrl, key, body, contentLength, handle, keepBody, events);
+            } catch (IOException exception) {
+                // A cancelled or expired call fails with that reason, whatever broke.
+                handle.check();
+                if (!isRetryable(exception))
+                    throw exception;
+                delay = retryPolicy.nextDelay(attempt, delay, -1, clock.currentTimeMillis() - start);
+                if (delay < 0 || !fitsDeadline(handle, delay))
+                    throw exception;
+                sleep(handle, delay);
+                continue;
+            }
+            if (!RetryPolicy.isRetryable(result.code))
+                return result.response;
+            delay = retryPolicy.nextDelay(attempt, delay, result.serverDelayMillis,
+                    clock.currentTimeMillis() - start);
+            if (delay < 0 || !fitsDeadline(handle, delay))
+                return result.response;
+            sleep(handle, delay);
+        }
+    }
+
+    /**
+     * Fails a body larger than the API accepts before anything is sent, rather than
+     * after uploading it. A body of unknown length is let through.
+     */
+    static void checkBodySize(long contentLength) throws IOException {
+        if (contentLength > SendGridMail.MAX_SIZE)
+            throw new IOException("Mail of " + contentLength + " bytes exceeds the limit of "
+                    + SendGridMail.MAX_SIZE + " bytes");
+    }
+
+    /**
+     * There is no point waiting out a retry delay the deadline falls within.
+     */
+    private static boolean fitsDeadline(CallHandle handle, long delay) {
+        final long remaining = handle.remainingMillis();
+        return remaining < 0 || delay < remaining;
+    }
+
+    private void sleep(CallHandle handle, long delay) throws IOException, InterruptedException {
+        try {
+            clock.sleep(delay);
+        } catch (InterruptedException exception) {
+            handle.check();
+            throw exception;
+        }
+    }
+
+    /**
+     * Sends the body once, of the length measured before the first attempt. The same
+     * body is streamed again on every attempt, it is never copied into memory to be
+     * replayed.
+     */
+    private Attempt execute(String apiUrl, String key, RequestBody body, long contentLength,
+                            CallHandle handle, boolean keepBody, CallEvents events) throws IOException {
+        final URL url1 = new URL(apiUrl);
+        final HttpURLConnection urlConnection = (HttpURLConnection) url1.openConnection();
+        if (connectionSocketFactory != null && urlConnection instanceof HttpsURLConnection)
+            ((HttpsURLConnection) urlConnection).setSSLSocketFactory(connectionSocketFactory);
+
+        handle.attach(urlConnection);
+        try {
+            urlConnection.setConnectTimeout(handle.timeout(connectTimeoutMillis));
+            urlConnection.setReadTimeout(handle.timeout(readTimeoutMillis));
             urlConnection.setDoOutput(true);
             urlConnection.setRequestMethod("POST");
             urlConnection.setRequestProperty("Authorization", key);
             urlConnection.setRequestProperty("Accept", "application/json");
             urlConnection.setRequestProperty("Content-Type", "application/json; utf-8");
 
-            OutputStream outputStream = urlConnection.getOutputStream();
-            outputStream.write(body.getBody().toString().getBytes("UTF-8"));
-            outputStream.close();
+            if (compressionThreshold >= 0 && (contentLength < 0 || contentLength >= compressionThreshold)) {
+                body = new GzipRequestBody(body);
+                contentLength = body.getContentLength();
+            }
+            if (body.getContentEncoding() != null)
+                urlConnection.setRequestProperty("Content-Encoding", body.getContentEncoding());
+            if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE)
+                urlConnection.setFixedLengthStreamingMode((int) contentLength);
+            else
+                urlConnection.setChunkedStreamingMode(0);
 
-            InputStream inputStream;
-            try {
-                inputStream = urlConnection.getInputStream();
-            } catch(IOException exception) {
-                inputStream = urlConnection.getErrorStream();
+            if (events == null) {
+                OutputStream outputStream = new UploadOutputStream(urlConnection.getOutputStream(), handle);
+                body.writeTo(outputStream);
+                outputStream.close();
+            } else {
+                upload(urlConnection, body, handle, events);
+            }
+            handle.check();
+
+            final long responseStart = events != null ? System.nanoTime() : 0;
+            final int code = urlConnection.getResponseCode();
+            if (events != null)
+                eventListener.responseHeadersEnd(events.callId, code, System.nanoTime() - responseStart);
+            final SendGridResponse response;
+            if (code >= 200 && code < 300 && keepBody) {
+                response = success(code, readBody(urlConnection.getInputStream()));
+            } else if (code >= 200 && code < 300) {
+                drain(urlConnection.getInputStream());
+                response = success(code);
+            } else {
+                final InputStream inputStream = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? urlConnection.getErrorStream()
+                        : urlConnection.getInputStream();
+                response = error(code, readBody(inputStream));
             }
 
-            int code = urlConnection.getResponseCode();
-            String response = readInputStream(inputStream);
+            final long serverDelayMillis = RetryPolicy.isRetryable(code)
+                    ? getServerDelayMillis(urlConnection)
+                    : -1;
+            return new Attempt(code, response, serverDelayMillis);
+        } catch (IOException exception) {
+            // A connection that failed mid-exchange must not go back to the pool.
             urlConnection.disconnect();
+            throw exception;
+        } finally {
+            handle.detach();
+        }
+    }
 
-            return createResponse(code, response);
-        };
+    /**
+     * Connects and writes the body, reporting whether the connection was reused and
+     * how long each step took.
+     */
+    private void upload(HttpURLConnection urlConnection, RequestBody body, CallHandle handle,
+                        CallEvents events) throws IOException {
+        final long connectStart = System.nanoTime();
+        events.connectStart();
+        final boolean newConnection;
+        try {
+            urlConnection.connect();
+        } finally {
+            newConnection = events.connectEnd();
+        }
+        eventListener.connectionAcquired(events.callId, !newConnection, System.nanoTime() - connectStart);
+
+        final long uploadStart = System.nanoTime();
+        final UploadOutputStream outputStream = new UploadOutputStream(urlConnection.getOutputStream(), handle);
+        body.writeTo(outputStream, events);
+        outputStream.close();
+        eventListener.requestBodyEnd(events.callId, outputStream.count, System.nanoTime() - uploadStart);
     }
 
-    private String readInputStream(final InputStream inputStream) throws IOException {
-        final BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-        final StringBuilder stringBuilder = new StringBuilder();
-        String line;
-        while ((line = bufferedReader.readLine()) != null) {
-            stringBuilder.append(line);
+    /**
+     * Certificate and URL errors fail the same way on every attempt.
+     */
+    private static boolean isRetryable(IOException exception) {
+        return !(exception instanceof SSLPeerUnverifiedException)
+                && !(exception instanceof MalformedURLException);
+    }
+
+    /**
+     * Returns how long the server asked to wait, from a Retry-After header in seconds
+     * or an X-RateLimit-Reset header holding the epoch second the limit resets at,
+     * or -1 if neither is present.
+     */
+    private long getServerDelayMillis(HttpURLConnection urlConnection) {
+        final long retryAfter = parseLong(urlConnection.getHeaderField("Retry-After"));
+        if (retryAfter >= 0)
+            return retryAfter * 1000;
+        final long reset = parseLong(urlConnection.getHeaderField("X-RateLimit-Reset"));
+        if (reset >= 0)
+            return Math.max(0, reset * 1000 - clock.currentTimeMillis());
+        return -1;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null)
+            return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
         }
-        bufferedReader.close();
-        return stringBuilder.toString();
     }
 
-    private SendGridResponse createResponse(int code, String response) {
-        if (code >= 200 && code < 300)
-            return success(code);
-        else
-            return error(code, response);
+    /**
+     * Reads and discards a body nobody looks at, then closes it. A fully consumed
+     * stream hands its connection back to the keep-alive pool instead of closing the
+     * socket.
+     */
+    private static void drain(InputStream inputStream) throws IOException {
+        if (inputStream == null) return;
+        final byte[] buffer = BufferPool.shared().acquire(DRAIN_BUFFER_SIZE);
+        try {
+            while (inputStream.read(buffer) != -1) {
+                // discard
+            }
+        } finally {
+            BufferPool.shared().release(buffer);
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads a body as UTF-8, keeping at most {@link #MAX_BODY} bytes and draining the
+     * rest so the connection can be reused.
+     */
+    private static String readBody(InputStream inputStream) throws IOException {
+        if (inputStream == null) return "";
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = BufferPool.shared().acquire(DRAIN_BUFFER_SIZE);
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                final int kept = Math.min(read, MAX_BODY - outputStream.size());
+                if (kept > 0)
+                    outputStream.write(buffer, 0, kept);
+            }
+        } finally {
+            BufferPool.shared().release(buffer);
+            inputStream.close();
+        }
+        return outputStream.toString("UTF-8");
+    }
+
+    /**
+     * Counts the bytes uploaded and stops the upload between buffers once the call is
+     * cancelled or past its deadline.
+     */
+    private static class UploadOutputStream extends FilterOutputStream {
+        private final CallHandle handle;
+        long count;
+
+        UploadOutputStream(OutputStream outputStream, CallHandle handle) {
+            super(outputStream);
+            this.handle = handle;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            handle.check();
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            handle.check();
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static class Attempt {
+        final int code;
+        final SendGridResponse response;
+        final long serverDelayMillis;
+
+        Attempt(int code, SendGridResponse response, long serverDelayMillis) {
+            this.code = code;
+            this.response = response;
+            this.serverDelayMillis = serverDelayMillis;
+        }
     }
 
 }
@@ -0,0 +1,214 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import uk.co.jakebreen.sendgridandroid.SendGridMail.Attachment;
+
+/**
+ * Opt-in dispatcher that merges mails which only differ in their recipients into a
+ * single request with one personalization per mail, created with
+ * {@link SendGrid#createCoalescer(long, TimeUnit, int)}.
+ *
+ * A mail is held for at most the coalescing window after the first mail of its group
+ * arrived, or until its group reaches the personalization or recipient limit, and is
+ * then sent together with the rest of the group. Every mail of a group receives the
+ * response of the shared request, so an error in one personalization fails them all.
+ *
+ * Only mails with "to" recipients and no carbon copies are merged; any other mail is
+ * sent on its own straight away.
+ */
+public class SendGridCoalescer {
+
+    static final int MAX_PERSONALIZATIONS = 1000;
+    static final int MAX_RECIPIENTS = 1000;
+
+    private final SendGrid sendGrid;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final long windowMillis;
+    private final int maxPersonalizations;
+    private final Map<Key, Group> groups = new HashMap<>();
+
+    SendGridCoalescer(SendGrid sendGrid, Executor executor, ScheduledExecutorService scheduler,
+                      long windowMillis, int maxPersonalizations) {
+        this.sendGrid = sendGrid;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.windowMillis = windowMillis;
+        this.maxPersonalizations = maxPersonalizations;
+    }
+
+    /**
+     * Queues a mail to be sent together with other mails sharing its sender, subject,
+     * content, template and attachments. The mail must not be modified afterwards.
+     *
+     * @param mail the SendGridMail to send to the API
+     * @return the response of the request the mail ended up in
+     */
+    public SendGridFuture send(@NonNull SendGridMail mail) {
+        mail.checkUnsplit();
+        final SendGridFuture future = sendGrid.newFuture();
+        final int recipients = mail.getRecipients().size();
+        if (recipients == 0 || !mail.getRecipientCarbonCopies().isEmpty()
+                || !mail.getRecipientBlindCarbonCopies().isEmpty()) {
+            final List<SendGridMail> mails = new ArrayList<>(1);
+            mails.add(mail);
+            final List<SendGridFuture> futures = new ArrayList<>(1);
+            futures.add(future);
+            dispatch(mails, futures);
+            return future;
+        }
+
+        final Key key = new Key(mail);
+        Group full = null;
+        Group ready = null;
+        synchronized (this) {
+            Group group = groups.get(key);
+            if (group != null && group.recipients + recipients > MAX_RECIPIENTS) {
+                groups.remove(key);
+                full = group;
+                group = null;
+            }
+            if (group == null) {
+                group = new Group(key);
+                groups.put(key, group);
+                group.timeout = schedule(group);
+            }
+            group.add(mail, future, recipients);
+            if (group.mails.size() >= maxPersonalizations || group.recipients >= MAX_RECIPIENTS) {
+                groups.remove(key);
+                ready = group;
+            }
+        }
+        if (full != null)
+            dispatch(full);
+        if (ready != null)
+            dispatch(ready);
+        return future;
+    }
+
+    /**
+     * Sends every mail currently held, without waiting for their window to end.
+     */
+    public void flush() {
+        final List<Group> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(groups.values());
+            groups.clear();
+        }
+        for (Group group : pending)
+            dispatch(group);
+    }
+
+    private ScheduledFuture<?> schedule(final Group group) {
+        return scheduler.schedule(() -> {
+            synchronized (SendGridCoalescer.this) {
+                if (groups.get(group.key) != group)
+                    return;
+                groups.remove(group.key);
+            }
+            dispatch(group);
+        }, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatch(Group group) {
+        group.timeout.cancel(false);
+        dispatch(group.mails, group.futures);
+    }
+
+    private void dispatch(final List<SendGridMail> mails, final List<SendGridFuture> futures) {
+        executor.execute(() -> {
+            final SendGridResponse response = sendGrid.execute(sendGrid.createBody(mails));
+            for (SendGridFuture future : futures)
+                future.complete(response);
+        });
+    }
+
+    private static class Group {
+        final Key key;
+        final List<SendGridMail> mails = new ArrayList<>();
+        final List<SendGridFuture> futures = new ArrayList<>();
+        int recipients;
+        ScheduledFuture<?> timeout;
+
+        Group(Key key) {
+            this.key = key;
+        }
+
+        void add(SendGridMail mail, SendGridFuture future, int recipientCount) {
+            mails.add(mail);
+            futures.add(future);
+            recipients += recipientCount;
+        }
+    }
+
+    /**
+     * Snapshot of every part of a mail apart from its recipients.
+     */
+    private static final class Key {
+        private final Map<String, String> from;
+        private final String subject;
+        private final Map<String, String> content;
+        private final String templateId;
+        private final Map<String, String> replyTo;
+        private final int sendAt;
+        private final List<Attachment> attachments;
+        private final Map<String, Boolean> clickTracking;
+        private final int hashCode;
+
+        Key(SendGridMail mail) {
+            from = new HashMap<>(mail.getFrom());
+            subject = mail.getSubject();
+            content = new HashMap<>(mail.getContent());
+            templateId = mail.getTemplateId();
+            replyTo = new HashMap<>(mail.getReplyTo());
+            sendAt = mail.getSendAt();
+            attachments = new ArrayList<>(mail.getFileAttachments());
+            clickTracking = new HashMap<>(mail.getClickTracking());
+            int result = from.hashCode();
+            result = 31 * result + (subject != null ? subject.hashCode() : 0);
+            result = 31 * result + content.hashCode();
+            result = 31 * result + (templateId != null ? templateId.hashCode() : 0);
+            result = 31 * result + replyTo.hashCode();
+            result = 31 * result + sendAt;
+            result = 31 * result + attachments.hashCode();
+            result = 31 * result + clickTracking.hashCode();
+            hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key key = (Key) o;
+            return hashCode == key.hashCode
+                    && sendAt == key.sendAt
+                    && equal(subject, key.subject)
+                    && equal(templateId, key.templateId)
+                    && from.equals(key.from)
+                    && replyTo.equals(key.replyTo)
+                    && attachments.equals(key.attachments)
+                    && clickTracking.equals(key.clickTracking)
+                    && content.equals(key.content);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+}
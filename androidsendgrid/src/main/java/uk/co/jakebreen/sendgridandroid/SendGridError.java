@@ -0,0 +1,57 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * One of the errors returned by the API for a failed request.
+ */
+public class SendGridError {
+
+    private final String message;
+    private final String field;
+    private final String help;
+
+    SendGridError(String message, String field, String help) {
+        this.message = message;
+        this.field = field;
+        this.help = help;
+    }
+
+    /**
+     * Returns the description of the error.
+     *
+     * @return error message
+     */
+    @NonNull
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the path of the request field the error relates to, such as
+     * {@code personalizations.0.to.0.email}. NULL when not about a single field.
+     *
+     * @return the field in error
+     */
+    @Nullable
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Returns a link to documentation on the error. NULL when none is given.
+     *
+     * @return help link
+     */
+    @Nullable
+    public String getHelp() {
+        return help;
+    }
+
+    @Override
+    public String toString() {
+        return field != null ? field + ": " + message : message;
+    }
+
+}
@@ -0,0 +1,179 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The pending response of a mail sent asynchronously, with
+ * {@link SendGrid#sendAsync(SendGridMail)}, a {@link SendGridCoalescer} or a
+ * {@link SendGridScheduler}.
+ *
+ * Besides blocking on {@link #get()}, callbacks can be added to be told about the
+ * response on an executor of choice, such as one posting to the main thread. A send
+ * that fails with an exception completes with an unsuccessful response with code 0,
+ * so the future itself only fails when it is cancelled.
+ */
+public class SendGridFuture implements Future<SendGridResponse> {
+
+    /**
+     * Receives the response of an asynchronous send.
+     */
+    public interface Callback {
+
+        void onResponse(@NonNull SendGridResponse response);
+
+    }
+
+    private final Executor defaultExecutor;
+    private final CallHandle handle;
+    private final Runnable onCancel;
+    private final AtomicReference<Result> result = new AtomicReference<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private List<Runnable> callbacks = new ArrayList<>(1);
+
+    SendGridFuture(Executor defaultExecutor, CallHandle handle) {
+        this(defaultExecutor, handle, null);
+    }
+
+    /**
+     * @param onCancel run once the future has been cancelled, or null
+     */
+    SendGridFuture(Executor defaultExecutor, CallHandle handle, Runnable onCancel) {
+        this.defaultExecutor = defaultExecutor;
+        this.handle = handle;
+        this.onCancel = onCancel;
+    }
+
+    /**
+     * Completes the future and runs its callbacks, only the first response is kept.
+     *
+     * @return true when this call completed the future
+     */
+    boolean complete(SendGridResponse value) {
+        return complete(value, false);
+    }
+
+    private boolean complete(SendGridResponse value, boolean cancel) {
+        if (!result.compareAndSet(null, new Result(value, cancel)))
+            return false;
+        done.countDown();
+        final List<Runnable> pending;
+        synchronized (this) {
+            pending = callbacks;
+            callbacks = null;
+        }
+        for (Runnable callback : pending)
+            callback.run();
+        return true;
+    }
+
+    /**
+     * Calls back with the response once there is one, on the executor set with
+     * {@link SendGrid.Builder#setCallbackExecutor(Executor)}, by default the thread
+     * that completed the send.
+     *
+     * @param callback the callback
+     * @return this future
+     */
+    public SendGridFuture addCallback(@NonNull Callback callback) {
+        return addCallback(callback, defaultExecutor);
+    }
+
+    /**
+     * Calls back with the response once there is one, on the given executor.
+     *
+     * @param callback the callback
+     * @param executor the executor the callback is run on
+     * @return this future
+     */
+    public SendGridFuture addCallback(@NonNull final Callback callback, @NonNull final Executor executor) {
+        final Runnable runnable = () -> executor.execute(() -> callback.onResponse(result.get().response));
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(runnable);
+                return this;
+            }
+        }
+        runnable.run();
+        return this;
+    }
+
+    /**
+     * Cancels the send, stopping an upload in progress between buffers and closing its
+     * connection, whether or not interrupting is allowed. Callbacks receive an
+     * unsuccessful response with code 0. A mail already uploaded may still be sent.
+     *
+     * Futures of a {@link SendGridCoalescer} share their request with other mails, so
+     * cancelling one only completes the future. Cancelling a future of a
+     * {@link SendGridScheduler} takes its mail out of the scheduler.
+     *
+     * @param mayInterruptIfRunning ignored
+     * @return false if the send had already completed
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!complete(SendGridResponse.Factory.failure(new InterruptedIOException("Canceled")), true))
+            return false;
+        if (handle != null)
+            handle.cancel();
+        if (onCancel != null)
+            onCancel.run();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        final Result completed = result.get();
+        return completed != null && completed.cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return result.get() != null;
+    }
+
+    @Override
+    public SendGridResponse get() throws InterruptedException {
+        done.await();
+        return getResponse();
+    }
+
+    @Override
+    public SendGridResponse get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!done.await(timeout, unit))
+            throw new TimeoutException();
+        return getResponse();
+    }
+
+    private SendGridResponse getResponse() {
+        final Result completed = result.get();
+        if (completed.cancelled)
+            throw new CancellationException();
+        return completed.response;
+    }
+
+    /**
+     * The response together with whether it came from cancelling, published in one
+     * step so a completed future is never seen without knowing which it was.
+     */
+    private static final class Result {
+        final SendGridResponse response;
+        final boolean cancelled;
+
+        Result(SendGridResponse response, boolean cancelled) {
+            this.response = response;
+            this.cancelled = cancelled;
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package uk.co.jakebreen.sendgridandroid;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
 import androidx.annotation.NonNull;
@@ -7,50 +8,188 @@ import androidx.annotation.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static uk.co.jakebreen.sendgridandroid.FileEncoder.base64Length;
 import static uk.co.jakebreen.sendgridandroid.FileEncoder.encodeFileToBase64;
-import static uk.co.jakebreen.sendgridandroid.FileEncoder.uriToFile;
+import static uk.co.jakebreen.sendgridandroid.FileEncoder.encodeUriToBase64;
+import static uk.co.jakebreen.sendgridandroid.FileEncoder.uriToAttachment;
 import static uk.co.jakebreen.sendgridandroid.SendGridMail.Attachment.isFile;
 
+/**
+ * A mail to send, either built once with {@link #builder()} or filled in through the
+ * setters of a mail created with {@link #SendGridMail()}.
+ *
+ * A built mail is immutable and safe to share between threads. Its body, apart from
+ * attachment content, is serialized the first time it is sent and the same bytes are
+ * reused by every later send, retry or comparison for deduplication. A mail filled in
+ * through its setters must not be changed while it is being sent, and is serialized
+ * again for every send.
+ */
 public class SendGridMail {
 
+    /**
+     * The largest mail the API accepts, in bytes of the request body including the
+     * base64 encoded attachments. Larger mails fail before anything is sent.
+     */
+    public static final long MAX_SIZE = 30L * 1024 * 1024;
+
     static final String EMPTY = "";
     static final String TYPE_PLAIN = "text/plain";
     static final String TYPE_HTML = "text/html";
 
-    private final Map<String, String> to = new HashMap<>();
-    private final Map<String, String> cc = new HashMap<>();
-    private final Map<String, String> bcc = new HashMap<>();
-    private String subject;
-    private final Map<String, String> content = new HashMap<>();
-    private final Map<String, String> from = new HashMap<>();
-    private final Map<String, String> replyTo = new HashMap<>();
-    private final Map<String, Boolean> clickTracking = new HashMap<>();
-    private String templateId;
-    private int sendAt;
-    private List<Attachment> attachments = new ArrayList<>();
+    private final Recipients to;
+    private final Recipients cc;
+    private final Recipients bcc;
+    private final Map<String, String> content;
+    private final Map<String, String> from;
+    private final Map<String, String> replyTo;
+    private final Map<String, Boolean> clickTracking;
+    private final List<Attachment> attachments;
+    private final Settings settings;
+    private final boolean immutable;
+    private volatile byte[] encodedFields;
+
+    public SendGridMail() {
+        to = new Recipients();
+        cc = new Recipients();
+        bcc = new Recipients();
+        content = new HashMap<>();
+        from = new HashMap<>();
+        replyTo = new HashMap<>();
+        clickTracking = new HashMap<>();
+        attachments = new ArrayList<>();
+        settings = new Settings();
+        immutable = false;
+    }
+
+    /**
+     * Creates a mutable mail holding only the given recipients.
+     */
+    private SendGridMail(Recipients to, Recipients cc, Recipients bcc) {
+        this.to = to;
+        this.cc = cc;
+        this.bcc = bcc;
+        content = new HashMap<>();
+        from = new HashMap<>();
+        replyTo = new HashMap<>();
+        clickTracking = new HashMap<>();
+        attachments = new ArrayList<>();
+        settings = new Settings();
+        immutable = false;
+    }
+
+    /**
+     * Copies the mail into an immutable one.
+     */
+    private SendGridMail(SendGridMail mail, boolean recipientSplitting) {
+        this(mail, recipientSplitting, mail.settings.sendAt, mail.settings.batchId);
+    }
 
-    public SendGridMail() { }
+    /**
+     * Copies the mail into an immutable one to be sent at the given unix timestamp as
+     * part of the given batch. Everything a built mail holds is set here, before its
+     * final fields are frozen, so the mail is safely published however it is shared.
+     */
+    private SendGridMail(SendGridMail mail, boolean recipientSplitting, int sendAt, String batchId) {
+        to = copyRecipients(mail.to, recipientSplitting);
+        cc = copyRecipients(mail.cc, recipientSplitting);
+        bcc = copyRecipients(mail.bcc, recipientSplitting);
+        content = Collections.unmodifiableMap(new HashMap<>(mail.content));
+        from = Collections.unmodifiableMap(new HashMap<>(mail.from));
+        replyTo = Collections.unmodifiableMap(new HashMap<>(mail.replyTo));
+        clickTracking = Collections.unmodifiableMap(new HashMap<>(mail.clickTracking));
+        attachments = Collections.unmodifiableList(new ArrayList<>(mail.attachments));
+        settings = new Settings();
+        settings.subject = mail.settings.subject;
+        settings.templateId = mail.settings.templateId;
+        settings.sendAt = sendAt;
+        settings.batchId = batchId;
+        settings.recipientSplitting = recipientSplitting;
+        immutable = true;
+    }
+
+    private static Recipients copyRecipients(Recipients recipients, boolean unlimited) {
+        final Recipients copy = new Recipients();
+        if (unlimited)
+            copy.setLimit(Integer.MAX_VALUE);
+        copy.putAll(recipients);
+        return copy;
+    }
+
+    /**
+     * Returns a {@link Builder} of an immutable mail.
+     *
+     * @return the builder for the mail
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
 
     /**
      * Add a new recipient up to a maximum of 1000 recipients.
      * Email address must be specified and an optional name of person or company
-     * that is receiving this mail.
+     * that is receiving this mail. Recipients are sent in the order they were added,
+     * adding an address again, with its domain in any case, replaces its name.
      *
      * @param email the recipient's email address
      * @param name  name of person or company that is receiving this mail
      */
     public void addRecipient(@NonNull String email, @Nullable String name) {
-        if (to.size() >= 1000) return;
-
-        if (name == null) name = EMPTY;
+        checkMutable();
         to.put(email, name);
     }
 
+    /**
+     * Lifts the limit of 1000 recipients, carbon copies and blind carbon copies, for
+     * mails sent with {@link SendGrid#sendSplit(SendGridMail)}, which spreads them
+     * over as many requests as the API's limit of 1000 recipients per request takes.
+     * Call it before adding recipients, those beyond 1000 added earlier were dropped.
+     * Other sends reject such a mail once it holds more than 1000 in total.
+     *
+     * @param enabled whether to accept any number of recipients
+     */
+    public void setRecipientSplitting(boolean enabled) {
+        checkMutable();
+        settings.recipientSplitting = enabled;
+        final int limit = enabled ? Integer.MAX_VALUE : Recipients.MAX_RECIPIENTS;
+        to.setLimit(limit);
+        cc.setLimit(limit);
+        bcc.setLimit(limit);
+    }
+
+    /**
+     * Add many recipients without names at once, up to a maximum of 1000 recipients,
+     * in the order given.
+     *
+     * @param emails the recipients' email addresses
+     */
+    public void addRecipients(@NonNull Iterable<String> emails) {
+        checkMutable();
+        if (emails instanceof Collection)
+            to.ensureCapacity(to.size() + ((Collection<String>) emails).size());
+        for (String email : emails)
+            to.put(email, null);
+    }
+
+    /**
+     * Add many recipients at once, up to a maximum of 1000 recipients, in the
+     * iteration order of the map.
+     *
+     * @param recipients the recipients' email addresses mapped to their names, which
+     *                   may be null
+     */
+    public void addRecipients(@NonNull Map<String, String> recipients) {
+        checkMutable();
+        to.putAll(recipients);
+    }
+
     /**
      * Add a new Carbon Copy recipient up to a maximum of 1000 recipients.
      * Email address must be specified and an optional name of person or company
@@ -60,9 +199,7 @@ public class SendGridMail {
      * @param name  name of person or company that is receiving this mail
      */
     public void addRecipientCarbonCopy(@NonNull String email, @Nullable String name) {
-        if (cc.size() >= 1000) return;
-
-        if (name == null) name = EMPTY;
+        checkMutable();
         cc.put(email, name);
     }
 
@@ -75,9 +212,7 @@ public class SendGridMail {
      * @param name  name of person or company that is receiving this mail
      */
     public void addRecipientBlindCarbonCopy(@NonNull String email, @Nullable String name) {
-        if (bcc.size() >= 1000) return;
-
-        if (name == null) name = EMPTY;
+        checkMutable();
         bcc.put(email, name);
     }
 
@@ -89,21 +224,26 @@ public class SendGridMail {
      * @param name  name of person or company that is sending this mail
      */
     public void setFrom(@NonNull String email, @Nullable String name) {
+        checkMutable();
         if (name == null)
             name = EMPTY;
+        from.clear();
         from.put(email, name);
     }
 
     /**
-     * The name of the person or company that is sending the email.
+     * The address replies to this mail should go to, and the optional name of the
+     * person or company behind it.
      *
-     * @param email email of person or company that is sending this mail
-     * @param name  name of person or company that is sending this mail
+     * @param email email replies should be sent to
+     * @param name  name of person or company replies should be sent to
      */
     public void setReplyTo(@NonNull String email, @Nullable String name) {
+        checkMutable();
         if (name == null)
             name = EMPTY;
-        from.put(email, name);
+        replyTo.clear();
+        replyTo.put(email, name);
     }
 
     /**
@@ -112,9 +252,10 @@ public class SendGridMail {
      * @param subject subject of your email
      */
     public void setSubject(@NonNull String subject) {
+        checkMutable();
         if (subject.length() == 0)
             subject = " ";
-        this.subject = subject;
+        settings.subject = subject;
     }
 
     /**
@@ -123,7 +264,8 @@ public class SendGridMail {
      * @param templateId the id of your designated template
      */
     public void setTemplateId(@NonNull String templateId) {
-        this.templateId = templateId;
+        checkMutable();
+        settings.templateId = templateId;
     }
 
     /**
@@ -132,6 +274,7 @@ public class SendGridMail {
      * @param body the body of your email
      */
     public void setContent(@NonNull String body) {
+        checkMutable();
         if (body.length() == 0)
             body = " ";
         content.put(TYPE_PLAIN, body);
@@ -143,6 +286,7 @@ public class SendGridMail {
      * @param body the body of your email
      */
     public void setHtmlContent(@NonNull String body) {
+        checkMutable();
         if (body.length() == 0)
             body = " ";
         content.put(TYPE_HTML, body);
@@ -150,20 +294,26 @@ public class SendGridMail {
 
     /**
      * A unix timestamp allowing you to specify when you want your email to be delivered.
+     * Times in the past are ignored. To hold a mail on the device until it is due, or to
+     * be able to cancel it, schedule it with a {@link SendGridScheduler} instead.
      *
      * @param sendAt the unix timestamp of when your email should be sent
      */
     public void setSendAt(int sendAt) {
+        checkMutable();
         if (sendAt > System.currentTimeMillis() / 1000L)
-            this.sendAt = sendAt;
+            settings.sendAt = sendAt;
     }
 
     /**
      * Add an attachment of type {@link File} to the email, up to a maximum of 10.
+     * Only a reference to the file is kept, its content is read and encoded while
+     * the mail is being sent.
      *
      * @param file the content to be attached
      */
     public void addAttachment(@NonNull File file) throws IOException {
+        checkMutable();
         if (attachments.size() >= 10)
             return;
         if (isFile(file))
@@ -172,18 +322,23 @@ public class SendGridMail {
 
     /**
      * Add an attachment of type {@link Uri} to the email, up to a maximum of 10.
+     * The content is streamed from the {@link ContentResolver} while the mail is being
+     * sent, without a copy on storage, so permission to read the uri must still be
+     * held at that time.
      *
      * @param uri the content to be attached
      */
     public void addAttachment(@NonNull Context context, @NonNull Uri uri) throws IOException {
+        checkMutable();
         if (attachments.size() >= 10)
             return;
-        final File file = uriToFile(context, uri);
-        if (isFile(file))
-            attachments.add(new Attachment(file));
+        final Attachment attachment = uriToAttachment(context, uri);
+        if (attachment != null)
+            attachments.add(attachment);
     }
 
     public void setClickTracking(@NonNull String name, @Nullable Boolean enabled) {
+        checkMutable();
         clickTracking.put(name, enabled);
     }
 
@@ -200,8 +355,98 @@ public class SendGridMail {
         return fileNames;
     }
 
+    /**
+     * Returns the exact size in bytes of the request body sending this mail would
+     * make, to compare with {@link #MAX_SIZE}. Attachments are counted from their file
+     * or content size without being read or encoded, and a built mail's serialized
+     * fields are reused, so this is cheap enough to call before every send.
+     *
+     * @return the body size in bytes, or -1 if an attachment is of unknown size
+     */
+    public long estimateSize() {
+        try {
+            return SendGridMailBody.create(this).getContentLength();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     Map<String, Boolean> getClickTracking() { return clickTracking; }
 
+    /**
+     * Spreads the recipients, carbon copies and blind carbon copies over as few mails
+     * holding nothing else as keep each within 1000 recipients in total. Each list is
+     * divided evenly and in order, so every mail gets a share of the recipients.
+     *
+     * @throws IllegalArgumentException if there are fewer recipients than mails
+     *                                  needed, leaving a mail without any
+     */
+    List<SendGridMail> splitRecipients() {
+        final int total = to.size() + cc.size() + bcc.size();
+        int count = Math.max(1, (total + Recipients.MAX_RECIPIENTS - 1) / Recipients.MAX_RECIPIENTS);
+        // Rounding each list's share up can overshoot, so take one more mail until it fits.
+        while (share(to, count) + share(cc, count) + share(bcc, count) > Recipients.MAX_RECIPIENTS)
+            count++;
+        if (to.size() < count)
+            throw new IllegalArgumentException(count + " requests are needed but there are only "
+                    + to.size() + " recipients, each request needs at least one");
+        final List<SendGridMail> mails = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            mails.add(new SendGridMail(slice(to, i, count), slice(cc, i, count), slice(bcc, i, count)));
+        return mails;
+    }
+
+    /**
+     * Throws if recipient splitting let the mail hold more recipients in total than a
+     * single request takes, which only {@link SendGrid#sendSplit(SendGridMail)} sends.
+     */
+    void checkUnsplit() {
+        final int total = to.size() + cc.size() + bcc.size();
+        if (settings.recipientSplitting && total > Recipients.MAX_RECIPIENTS)
+            throw new IllegalArgumentException("Mail has " + total + " recipients, more than the "
+                    + Recipients.MAX_RECIPIENTS + " of a single request, send it with sendSplit");
+    }
+
+    private static int share(Recipients recipients, int count) {
+        return (recipients.size() + count - 1) / count;
+    }
+
+    private static Recipients slice(Recipients recipients, int index, int count) {
+        final long size = recipients.size();
+        return recipients.slice((int) (size * index / count), (int) (size * (index + 1) / count));
+    }
+
+    /**
+     * Returns an immutable copy of the mail to be sent at the given unix timestamp as
+     * part of the given batch, which lets the scheduled send be cancelled. The time is
+     * taken as is, even if it has just passed.
+     */
+    SendGridMail withSchedule(int sendAt, String batchId) {
+        return new SendGridMail(this, settings.recipientSplitting, sendAt, batchId);
+    }
+
+    boolean isImmutable() {
+        return immutable;
+    }
+
+    /**
+     * Returns the members of the body of an immutable mail apart from its attachments,
+     * serialized on first use.
+     */
+    byte[] getEncodedFields() {
+        byte[] fields = encodedFields;
+        if (fields == null) {
+            fields = SendGridMailBody.encodeMembers(this, true);
+            encodedFields = fields;
+        }
+        return fields;
+    }
+
+    private void checkMutable() {
+        if (immutable)
+            throw new IllegalStateException("A built SendGridMail cannot be changed");
+    }
+
     Map<String, String> getRecipients() {
         return to;
     }
@@ -215,7 +460,7 @@ public class SendGridMail {
     }
 
     String getSubject() {
-        return subject;
+        return settings.subject;
     }
 
     Map<String, String> getContent() {
@@ -231,34 +476,273 @@ public class SendGridMail {
     }
 
     String getTemplateId() {
-        return templateId;
+        return settings.templateId;
     }
 
     int getSendAt() {
-        return sendAt;
+        return settings.sendAt;
+    }
+
+    String getBatchId() {
+        return settings.batchId;
     }
 
     List<Attachment> getFileAttachments() {
         return attachments;
     }
 
-    static class Attachment {
-        private final String content;
+    /**
+     * The single valued members of a mail. A mutable mail's setters change them, while a
+     * built mail gets its own copy, filled in by its constructor and never changed after.
+     */
+    private static final class Settings {
+        private String subject;
+        private String templateId;
+        private int sendAt;
+        private String batchId;
+        private boolean recipientSplitting;
+    }
+
+    /**
+     * Builds an immutable {@link SendGridMail}. The builder itself is not thread safe,
+     * and may go on to build further mails once one has been built.
+     */
+    public static final class Builder {
+
+        private final SendGridMail mail = new SendGridMail();
+        private boolean recipientSplitting;
+
+        private Builder() {
+            // Collect every recipient, the limit applies once the mail is built.
+            mail.setRecipientSplitting(true);
+        }
+
+        /**
+         * @see SendGridMail#setRecipientSplitting(boolean)
+         */
+        public Builder setRecipientSplitting(boolean enabled) {
+            recipientSplitting = enabled;
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#addRecipient(String, String)
+         */
+        public Builder addRecipient(@NonNull String email, @Nullable String name) {
+            mail.addRecipient(email, name);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#addRecipients(Iterable)
+         */
+        public Builder addRecipients(@NonNull Iterable<String> emails) {
+            mail.addRecipients(emails);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#addRecipients(Map)
+         */
+        public Builder addRecipients(@NonNull Map<String, String> recipients) {
+            mail.addRecipients(recipients);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#addRecipientCarbonCopy(String, String)
+         */
+        public Builder addRecipientCarbonCopy(@NonNull String email, @Nullable String name) {
+            mail.addRecipientCarbonCopy(email, name);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#addRecipientBlindCarbonCopy(String, String)
+         */
+        public Builder addRecipientBlindCarbonCopy(@NonNull String email, @Nullable String name) {
+            mail.addRecipientBlindCarbonCopy(email, name);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#setFrom(String, String)
+         */
+        public Builder setFrom(@NonNull String email, @Nullable String name) {
+            mail.setFrom(email, name);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#setReplyTo(String, String)
+         */
+        public Builder setReplyTo(@NonNull String email, @Nullable String name) {
+            mail.setReplyTo(email, name);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#setSubject(String)
+         */
+        public Builder setSubject(@NonNull String subject) {
+            mail.setSubject(subject);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#setTemplateId(String)
+         */
+        public Builder setTemplateId(@NonNull String templateId) {
+            mail.setTemplateId(templateId);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#setContent(String)
+         */
+        public Builder setContent(@NonNull String body) {
+            mail.setContent(body);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#setHtmlContent(String)
+         */
+        public Builder setHtmlContent(@NonNull String body) {
+            mail.setHtmlContent(body);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#setSendAt(int)
+         */
+        public Builder setSendAt(int sendAt) {
+            mail.setSendAt(sendAt);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#addAttachment(File)
+         */
+        public Builder addAttachment(@NonNull File file) throws IOException {
+            mail.addAttachment(file);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#addAttachment(Context, Uri)
+         */
+        public Builder addAttachment(@NonNull Context context, @NonNull Uri uri) throws IOException {
+            mail.addAttachment(context, uri);
+            return this;
+        }
+
+        /**
+         * @see SendGridMail#setClickTracking(String, Boolean)
+         */
+        public Builder setClickTracking(@NonNull String name, @Nullable Boolean enabled) {
+            mail.setClickTracking(name, enabled);
+            return this;
+        }
+
+        /**
+         * Returns an immutable mail holding everything set on this builder so far.
+         *
+         * @return the mail
+         */
+        public SendGridMail build() {
+            return new SendGridMail(mail, recipientSplitting);
+        }
+    }
+
+    /**
+     * An attached file, or content behind a uri read through a {@link ContentResolver}.
+     */
+    static class Attachment implements JsonWriter.Base64Source {
+        private final File file;
+        private final ContentResolver resolver;
+        private final Uri uri;
         private final String filename;
+        private final long size;
 
-        Attachment(File file) throws IOException {
-            this.content = encodeFileToBase64(file);
+        Attachment(File file) {
+            this.file = file;
+            this.resolver = null;
+            this.uri = null;
             this.filename = file.getName();
+            this.size = -1;
+        }
+
+        /**
+         * @param size the content size in bytes, or -1 if unknown
+         */
+        Attachment(ContentResolver resolver, Uri uri, String filename, long size) {
+            this.file = null;
+            this.resolver = resolver;
+            this.uri = uri;
+            this.filename = filename;
+            this.size = size;
+        }
+
+        /**
+         * Returns the length of the base64 content, derived from the file size
+         * without reading the file, or -1 for content of unknown size.
+         */
+        @Override
+        public long getEncodedLength() {
+            if (file != null)
+                return base64Length(file.length());
+            return size >= 0 ? base64Length(size) : -1;
         }
 
-        String getContent() {
-            return content;
+        /**
+         * Encodes the content to base64 as it is written, so the content is never
+         * held in memory as a whole.
+         */
+        @Override
+        public void writeBase64(OutputStream outputStream) throws IOException {
+            if (file != null)
+                encodeFileToBase64(file, outputStream);
+            else
+                encodeUriToBase64(resolver, uri, outputStream);
         }
 
         String getFilename() {
             return filename;
         }
 
+        /**
+         * Returns the attached file, or null for content behind a uri.
+         */
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns a string that changes whenever the content is likely to have changed,
+         * made from the file's path, size and modification time, or the uri and size,
+         * without reading the content.
+         */
+        String getFingerprint() {
+            if (file != null)
+                return file.getAbsolutePath() + '\u0000' + file.length() + '\u0000' + file.lastModified();
+            return uri.toString() + '\u0000' + size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Attachment)) return false;
+            final Attachment attachment = (Attachment) o;
+            return (file != null ? file.equals(attachment.file) : uri.equals(attachment.uri))
+                    && filename.equals(attachment.filename);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (file != null ? file.hashCode() : uri.hashCode()) + filename.hashCode();
+        }
+
         static boolean isFile(File file) {
             return (file != null && file.canRead() && file.exists() && file.isFile());
         }
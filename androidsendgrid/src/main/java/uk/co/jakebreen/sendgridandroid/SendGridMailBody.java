@@ -1,9 +1,14 @@
 package uk.co.jakebreen.sendgridandroid;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -13,7 +18,7 @@ import static uk.co.jakebreen.sendgridandroid.SendGridMail.EMPTY;
 import static uk.co.jakebreen.sendgridandroid.SendGridMail.TYPE_HTML;
 import static uk.co.jakebreen.sendgridandroid.SendGridMail.TYPE_PLAIN;
 
-class SendGridMailBody {
+class SendGridMailBody extends RequestBody {
 
     private static final String BODY_PERSONALISATIONS = "personalizations";
     private static final String BODY_TO = "to";
@@ -25,6 +30,7 @@ class SendGridMailBody {
     private static final String BODY_TEMPLATE_ID = "template_id";
     private static final String BODY_REPLY_TO = "reply_to";
     private static final String BODY_SEND_AT = "send_at";
+    private static final String BODY_BATCH_ID = "batch_id";
     private static final String BODY_ATTACHMENTS = "attachments";
     private static final String BODY_TRACKING_SETTINGS = "tracking_settings";
 
@@ -37,79 +43,224 @@ class SendGridMailBody {
 
     private static final String TRACKING_SETTINGS_CLICK_TRACKING = "click_tracking";
 
-    private final JSONObject body;
+    private final List<SendGridMail> mails;
+    private final AttachmentSources attachmentSources;
+
+    private SendGridMailBody(List<SendGridMail> mails, AttachmentCache attachmentCache) {
+        this.mails = mails;
+        this.attachmentSources = createAttachmentSources(attachmentCache);
+    }
 
-    private SendGridMailBody(JSONObject body) {
-        this.body = body;
+    /**
+     * Returns the attachment content for a single body, looked up in the cache if one
+     * is given.
+     */
+    static AttachmentSources createAttachmentSources(AttachmentCache attachmentCache) {
+        return attachmentCache != null
+                ? new CachedAttachmentSources(attachmentCache)
+                : AttachmentSources.UNCACHED;
     }
 
     static SendGridMailBody create(SendGridMail mail) {
-        return new SendGridMailBody(createMailBody(mail));
+        return create(mail, null);
+    }
+
+    /**
+     * Creates the body of a mail whose attachment content is taken from the cache when
+     * present.
+     */
+    static SendGridMailBody create(SendGridMail mail, AttachmentCache attachmentCache) {
+        return new SendGridMailBody(Collections.singletonList(mail), attachmentCache);
+    }
+
+    /**
+     * Creates a single request body that delivers several mails, one personalization
+     * per mail. Everything apart from the recipients is taken from the first mail, so
+     * the mails must only differ in their recipients.
+     *
+     * @param mails the mails to merge, at least one
+     */
+    static SendGridMailBody create(List<SendGridMail> mails) {
+        return create(mails, null);
+    }
+
+    static SendGridMailBody create(List<SendGridMail> mails, AttachmentCache attachmentCache) {
+        return new SendGridMailBody(new ArrayList<>(mails), attachmentCache);
     }
 
-    private static JSONObject createMailBody(SendGridMail mail) {
-        final JSONObject parent = new JSONObject();
+    /**
+     * Measures the body without holding the serialized body in memory.
+     */
+    @Override
+    long getContentLength() throws IOException {
+        final JsonWriter writer = JsonWriter.measuring();
         try {
-            JSONArray personalization = new JSONArray();
-            personalization.put(getToParams(mail));
-            if (!mail.getRecipientCarbonCopies().isEmpty())
-                personalization.put(getCcParams(mail));
-            if (!mail.getRecipientBlindCarbonCopies().isEmpty())
-                personalization.put(getBccParams(mail));
-            parent.put(BODY_PERSONALISATIONS, personalization);
-            parent.put(BODY_FROM, getFromParams(mail));
-            parent.put(BODY_SUBJECT, getSubjectParams(mail));
-            parent.put(BODY_CONTENT, getContentParams(mail));
-            if (mail.getTemplateId() != null)
-                parent.put(BODY_TEMPLATE_ID, getTemplateId(mail));
-            if (!mail.getReplyTo().isEmpty())
-                parent.put(BODY_REPLY_TO, getReplyToParams(mail));
-            if (mail.getSendAt() != 0)
-                parent.put(BODY_SEND_AT, getSendAt(mail));
-            if (mail.getAttachments().size() > 0)
-                parent.put(BODY_ATTACHMENTS, getAttachments(mail));
-            if (mail.getClickTracking().size() > 0) {
-                JSONObject trackingSettings = new JSONObject();
-                JSONObject clickTracking = getTrackingSettings(mail);
-                trackingSettings.put(TRACKING_SETTINGS_CLICK_TRACKING, clickTracking);
-                parent.put(BODY_TRACKING_SETTINGS, trackingSettings);
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
+            writeMailBody(writer, mails, attachmentSources);
+            writer.flush();
+            return writer.getByteCount();
+        } finally {
+            writer.release();
         }
-        return parent;
     }
 
-    JSONObject getBody() {
-        return body;
+    /**
+     * Streams the v3 mail/send JSON body.
+     */
+    @Override
+    void writeTo(OutputStream outputStream) throws IOException {
+        writeTo(outputStream, null);
+    }
+
+    @Override
+    void writeTo(OutputStream outputStream, CallEvents events) throws IOException {
+        final JsonWriter writer = new JsonWriter(outputStream);
+        try {
+            writeMailBody(writer, mails, attachmentSources);
+            writer.flush();
+            if (events != null)
+                events.attachmentsWritten(writer);
+        } finally {
+            writer.release();
+        }
     }
 
-    static JSONArray getContentParams(SendGridMail mail) throws JSONException {
-        final JSONArray jsonArray = new JSONArray();
-        Map<String, String> contentMap = mail.getContent();
-        if (contentMap.containsKey(TYPE_PLAIN)) {
-            final JSONObject jsonObject = new JSONObject();
-            jsonObject.put(PARAMS_CONTENT_TYPE, TYPE_PLAIN);
-            jsonObject.put(PARAMS_CONTENT_VALUE, contentMap.get(TYPE_PLAIN));
-            jsonArray.put(jsonObject);
-            contentMap.remove(TYPE_PLAIN);
+    @Override
+    void writeFingerprint(OutputStream outputStream) throws IOException {
+        final JsonWriter writer = new JsonWriter(outputStream);
+        try {
+            writeMailBody(writer, mails, AttachmentSources.FINGERPRINTS);
+            writer.flush();
+        } finally {
+            writer.release();
         }
+    }
 
-        if (contentMap.containsKey(TYPE_HTML)) {
-            final JSONObject jsonObject = new JSONObject();
-            jsonObject.put(PARAMS_CONTENT_TYPE, TYPE_HTML);
-            jsonObject.put(PARAMS_CONTENT_VALUE, contentMap.get(TYPE_HTML));
-            jsonArray.put(jsonObject);
-            contentMap.remove(TYPE_HTML);
+    static void writeMailBody(JsonWriter writer, List<SendGridMail> personalizations,
+                              AttachmentSources attachmentSources) throws IOException {
+        final SendGridMail mail = personalizations.get(0);
+        if (personalizations.size() == 1 && mail.isImmutable()) {
+            writer.beginObject();
+            writer.members(mail.getEncodedFields());
+            writeAttachmentsField(writer, mail.getFileAttachments(), attachmentSources);
+            writer.endObject();
+            return;
         }
+        writer.beginObject();
+        writer.name(BODY_PERSONALISATIONS).beginArray();
+        for (SendGridMail personalization : personalizations)
+            writePersonalizations(writer, personalization);
+        writer.endArray();
+        writeSharedFields(writer, mail);
+        writeAttachmentsField(writer, mail.getFileAttachments(), attachmentSources);
+        writer.endObject();
+    }
 
+    /**
+     * Serializes the members of a mail's body apart from its attachments, such as
+     * {@code "from":{...},"subject":"..."}, for {@link JsonWriter#members(byte[])}.
+     *
+     * @param withRecipients whether to start with the mail's personalizations
+     */
+    static byte[] encodeMembers(SendGridMail mail, boolean withRecipients) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final JsonWriter writer = new JsonWriter(outputStream);
+        try {
+            writer.beginObject();
+            if (withRecipients) {
+                writer.name(BODY_PERSONALISATIONS).beginArray();
+                writePersonalizations(writer, mail);
+                writer.endArray();
+            }
+            writeSharedFields(writer, mail);
+            writer.endObject();
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            writer.release();
+        }
+        // Keep the members only, without the enclosing braces.
+        final byte[] object = outputStream.toByteArray();
+        return Arrays.copyOfRange(object, 1, object.length - 1);
+    }
+
+    /**
+     * Writes a body from shared members serialized earlier by
+     * {@link #writeSharedFields(JsonWriter, SendGridMail)}, with the recipients of the
+     * given mail.
+     */
+    static void writeMailBody(JsonWriter writer, SendGridMail recipients, byte[] sharedFields,
+                              List<Attachment> attachments, AttachmentSources attachmentSources) throws IOException {
+        writer.beginObject();
+        writer.name(BODY_PERSONALISATIONS).beginArray();
+        writePersonalizations(writer, recipients);
+        writer.endArray();
+        writer.members(sharedFields);
+        writeAttachmentsField(writer, attachments, attachmentSources);
+        writer.endObject();
+    }
+
+    /**
+     * Writes the personalizations of a mail, one for its recipients and one each for
+     * its carbon copies and blind carbon copies, if any.
+     */
+    static void writePersonalizations(JsonWriter writer, SendGridMail mail) throws IOException {
+        writeToParams(writer, mail);
+        if (!mail.getRecipientCarbonCopies().isEmpty())
+            writeCcParams(writer, mail);
+        if (!mail.getRecipientBlindCarbonCopies().isEmpty())
+            writeBccParams(writer, mail);
+    }
+
+    /**
+     * Writes the members that do not depend on the recipients, apart from attachments.
+     */
+    static void writeSharedFields(JsonWriter writer, SendGridMail mail) throws IOException {
+        writer.name(BODY_FROM);
+        writeFromParams(writer, mail);
+        if (getSubjectParams(mail) != null)
+            writer.name(BODY_SUBJECT).value(getSubjectParams(mail));
+        writer.name(BODY_CONTENT);
+        writeContentParams(writer, mail);
+        if (mail.getTemplateId() != null)
+            writer.name(BODY_TEMPLATE_ID).value(getTemplateId(mail));
+        if (!mail.getReplyTo().isEmpty()) {
+            writer.name(BODY_REPLY_TO);
+            writeReplyToParams(writer, mail);
+        }
+        if (mail.getSendAt() != 0)
+            writer.name(BODY_SEND_AT).value(getSendAt(mail));
+        if (mail.getBatchId() != null)
+            writer.name(BODY_BATCH_ID).value(mail.getBatchId());
+        if (mail.getClickTracking().size() > 0) {
+            writer.name(BODY_TRACKING_SETTINGS).beginObject();
+            writer.name(TRACKING_SETTINGS_CLICK_TRACKING);
+            writeTrackingSettings(writer, mail);
+            writer.endObject();
+        }
+    }
+
+    static void writeAttachmentsField(JsonWriter writer, List<Attachment> attachments,
+                                      AttachmentSources attachmentSources) throws IOException {
+        if (attachments.isEmpty())
+            return;
+        writer.name(BODY_ATTACHMENTS);
+        writeAttachments(writer, attachments, attachmentSources);
+    }
+
+    static void writeContentParams(JsonWriter writer, SendGridMail mail) throws IOException {
+        final Map<String, String> contentMap = mail.getContent();
+        writer.beginArray();
+        if (contentMap.containsKey(TYPE_PLAIN))
+            writeContent(writer, TYPE_PLAIN, contentMap.get(TYPE_PLAIN));
+        if (contentMap.containsKey(TYPE_HTML))
+            writeContent(writer, TYPE_HTML, contentMap.get(TYPE_HTML));
         for (Entry<String, String> set : contentMap.entrySet()) {
-            final JSONObject jsonObject = new JSONObject();
-            jsonObject.put(PARAMS_CONTENT_TYPE, set.getKey());
-            jsonObject.put(PARAMS_CONTENT_VALUE, set.getValue());
-            jsonArray.put(jsonObject);
+            if (TYPE_PLAIN.equals(set.getKey()) || TYPE_HTML.equals(set.getKey()))
+                continue;
+            writeContent(writer, set.getKey(), set.getValue());
         }
-        return jsonArray;
+        writer.endArray();
     }
 
     static String getSubjectParams(SendGridMail mail) {
@@ -120,79 +271,158 @@ class SendGridMailBody {
         return mail.getTemplateId();
     }
 
-    static JSONObject getToParams(SendGridMail mail) throws JSONException {
-        final JSONObject jsonObject = new JSONObject();
-        jsonObject.put(BODY_TO, setEmails(mail.getRecipients()));
-        return jsonObject;
+    static void writeToParams(JsonWriter writer, SendGridMail mail) throws IOException {
+        writer.beginObject().name(BODY_TO);
+        writeEmails(writer, mail.getRecipients());
+        writer.endObject();
     }
 
-    static JSONObject getCcParams(SendGridMail mail) throws JSONException {
-        final JSONObject jsonObject = new JSONObject();
-        jsonObject.put(BODY_CC, setEmails(mail.getRecipientCarbonCopies()));
-        return jsonObject;
+    static void writeCcParams(JsonWriter writer, SendGridMail mail) throws IOException {
+        writer.beginObject().name(BODY_CC);
+        writeEmails(writer, mail.getRecipientCarbonCopies());
+        writer.endObject();
     }
 
-    static JSONObject getBccParams(SendGridMail mail) throws JSONException {
-        final JSONObject jsonObject = new JSONObject();
-        jsonObject.put(BODY_BCC, setEmails(mail.getRecipientBlindCarbonCopies()));
-        return jsonObject;
+    static void writeBccParams(JsonWriter writer, SendGridMail mail) throws IOException {
+        writer.beginObject().name(BODY_BCC);
+        writeEmails(writer, mail.getRecipientBlindCarbonCopies());
+        writer.endObject();
     }
 
-    static JSONObject getFromParams(SendGridMail mail) throws JSONException {
-        final JSONObject jsonObject = new JSONObject();
-        for (Entry<String, String> set : mail.getFrom().entrySet()) {
-            jsonObject.put(PARAMS_EMAIL, set.getKey());
-            jsonObject.put(PARAMS_NAME, set.getValue());
-        }
-        return jsonObject;
+    static void writeFromParams(JsonWriter writer, SendGridMail mail) throws IOException {
+        writeAddress(writer, mail.getFrom());
     }
 
-    static JSONObject getReplyToParams(SendGridMail mail) throws JSONException {
-        final JSONObject jsonObject = new JSONObject();
-        for (Entry<String, String> set : mail.getReplyTo().entrySet()) {
-            jsonObject.put(PARAMS_EMAIL, set.getKey());
-            jsonObject.put(PARAMS_NAME, set.getValue());
-        }
-        return jsonObject;
+    static void writeReplyToParams(JsonWriter writer, SendGridMail mail) throws IOException {
+        writeAddress(writer, mail.getReplyTo());
     }
 
     static int getSendAt(SendGridMail mail) {
         return mail.getSendAt();
     }
 
-    static JSONArray getAttachments(SendGridMail mail) throws JSONException {
-        final JSONArray jsonArray = new JSONArray();
-        for (Attachment attachment : mail.getFileAttachments()) {
-            if (attachment.getContent().isEmpty())
+    static void writeAttachments(JsonWriter writer, SendGridMail mail) throws IOException {
+        writeAttachments(writer, mail.getFileAttachments(), AttachmentSources.UNCACHED);
+    }
+
+    static void writeAttachments(JsonWriter writer, List<Attachment> attachments,
+                                 AttachmentSources attachmentSources) throws IOException {
+        writer.beginArray();
+        for (Attachment attachment : attachments) {
+            if (attachment.getEncodedLength() == 0)
                 continue;
-            JSONObject jsonObject = new JSONObject();
-            jsonObject.put(PARAMS_ATTACHMENT_CONTENT, attachment.getContent());
-            jsonObject.put(PARAMS_ATTACHMENT_FILENAME, attachment.getFilename());
-            jsonArray.put(jsonObject);
+            writer.beginObject();
+            writer.name(PARAMS_ATTACHMENT_CONTENT).value(attachmentSources.get(attachment));
+            writer.name(PARAMS_ATTACHMENT_FILENAME).value(attachment.getFilename());
+            writer.endObject();
         }
-        return jsonArray;
+        writer.endArray();
     }
 
-    static JSONObject getTrackingSettings(SendGridMail mail) throws JSONException {
-        final JSONObject jsonObject = new JSONObject();
+    static void writeTrackingSettings(JsonWriter writer, SendGridMail mail) throws IOException {
+        writer.beginObject();
         for (Entry<String, Boolean> set : mail.getClickTracking().entrySet()) {
-            jsonObject.put(set.getKey(), set.getValue());
+            if (set.getValue() != null)
+                writer.name(set.getKey()).value(set.getValue());
+        }
+        writer.endObject();
+    }
+
+    private static void writeContent(JsonWriter writer, String type, String value) throws IOException {
+        writer.beginObject();
+        writer.name(PARAMS_CONTENT_TYPE).value(type);
+        if (value != null)
+            writer.name(PARAMS_CONTENT_VALUE).value(value);
+        writer.endObject();
+    }
+
+    private static void writeAddress(JsonWriter writer, Map<String, String> address) throws IOException {
+        Entry<String, String> last = null;
+        for (Entry<String, String> set : address.entrySet())
+            last = set;
+        writer.beginObject();
+        if (last != null) {
+            writer.name(PARAMS_EMAIL).value(last.getKey());
+            writer.name(PARAMS_NAME).value(last.getValue());
         }
-        return jsonObject;
+        writer.endObject();
     }
 
-    private static JSONArray setEmails(Map<String, String> emailMap) throws JSONException {
+    private static void writeEmails(JsonWriter writer, Map<String, String> emailMap) throws IOException {
         int count = 0;
-        final JSONArray jsonArray = new JSONArray();
+        writer.beginArray();
         for (Entry<String, String> set : emailMap.entrySet()) {
-            JSONObject jsonObject = new JSONObject();
-            jsonObject.put(PARAMS_EMAIL, set.getKey());
-            jsonObject.put(PARAMS_NAME, set.getValue().equals(EMPTY) ? null : set.getValue());
-            jsonArray.put(jsonObject);
+            writer.beginObject();
+            writer.name(PARAMS_EMAIL).value(set.getKey());
+            if (!set.getValue().equals(EMPTY))
+                writer.name(PARAMS_NAME).value(set.getValue());
+            writer.endObject();
 
             count ++;
             if (count >= 1000) break;
         }
-        return jsonArray;
+        writer.endArray();
     }
+
+    /**
+     * Supplies the content written for each attachment.
+     */
+    interface AttachmentSources {
+
+        AttachmentSources UNCACHED = attachment -> attachment;
+
+        /**
+         * Writes each attachment's fingerprint instead of its content, for
+         * {@link RequestBody#writeFingerprint(OutputStream)}.
+         */
+        AttachmentSources FINGERPRINTS = FingerprintSource::new;
+
+        JsonWriter.Base64Source get(Attachment attachment) throws IOException;
+    }
+
+    private static class FingerprintSource implements JsonWriter.Base64Source {
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        private final byte[] fingerprint;
+
+        FingerprintSource(Attachment attachment) {
+            this.fingerprint = attachment.getFingerprint().getBytes(UTF_8);
+        }
+
+        @Override
+        public long getEncodedLength() {
+            return fingerprint.length;
+        }
+
+        @Override
+        public void writeBase64(OutputStream outputStream) throws IOException {
+            outputStream.write(fingerprint);
+        }
+    }
+
+    /**
+     * Looks each attachment up in the cache once per body, so measuring and then
+     * writing the body counts a single hit or miss.
+     */
+    private static class CachedAttachmentSources implements AttachmentSources {
+
+        private final AttachmentCache attachmentCache;
+        private final Map<Attachment, JsonWriter.Base64Source> sources = new HashMap<>();
+
+        CachedAttachmentSources(AttachmentCache attachmentCache) {
+            this.attachmentCache = attachmentCache;
+        }
+
+        @Override
+        public synchronized JsonWriter.Base64Source get(Attachment attachment) throws IOException {
+            JsonWriter.Base64Source source = sources.get(attachment);
+            if (source == null) {
+                source = attachmentCache.get(attachment);
+                sources.put(attachment, source);
+            }
+            return source;
+        }
+    }
+
 }
@@ -0,0 +1,115 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import uk.co.jakebreen.sendgridandroid.SendGridMail.Attachment;
+
+/**
+ * Immutable snapshot of everything in a {@link SendGridMail} apart from its recipients,
+ * used to send the same mail to many recipients with
+ * {@link SendGrid#send(SendGridMailPrototype, SendGridMail)}.
+ *
+ * The sender, subject, content, template, reply-to, send time and tracking settings
+ * are serialized to JSON once, when the prototype is created, and copied as is into
+ * every request. Only the recipients are serialized per send. Attachments are kept by
+ * reference and encoded when sent, so pair a prototype with an {@link AttachmentCache}
+ * to encode them once too.
+ */
+public final class SendGridMailPrototype {
+
+    private final byte[] fragment;
+    private final List<Attachment> attachments;
+
+    private SendGridMailPrototype(byte[] fragment, List<Attachment> attachments) {
+        this.fragment = fragment;
+        this.attachments = attachments;
+    }
+
+    /**
+     * Creates a prototype from the current state of the mail, later changes to the
+     * mail are not reflected. Recipients of the mail are ignored.
+     *
+     * @param mail the mail to take everything but the recipients from
+     * @return the prototype
+     */
+    public static SendGridMailPrototype from(@NonNull SendGridMail mail) {
+        return new SendGridMailPrototype(SendGridMailBody.encodeMembers(mail, false),
+                Collections.unmodifiableList(new ArrayList<>(mail.getFileAttachments())));
+    }
+
+    RequestBody createBody(SendGridMail recipients, AttachmentCache attachmentCache) {
+        return new Body(this, recipients, SendGridMailBody.createAttachmentSources(attachmentCache));
+    }
+
+    /**
+     * The body of one send, the recipients' personalizations followed by the
+     * prototype's serialized members and its attachments.
+     */
+    private static class Body extends RequestBody {
+
+        private final SendGridMailPrototype prototype;
+        private final SendGridMail recipients;
+        private final SendGridMailBody.AttachmentSources attachmentSources;
+
+        Body(SendGridMailPrototype prototype, SendGridMail recipients,
+             SendGridMailBody.AttachmentSources attachmentSources) {
+            this.prototype = prototype;
+            this.recipients = recipients;
+            this.attachmentSources = attachmentSources;
+        }
+
+        @Override
+        long getContentLength() throws IOException {
+            final JsonWriter writer = JsonWriter.measuring();
+            try {
+                write(writer);
+                writer.flush();
+                return writer.getByteCount();
+            } finally {
+                writer.release();
+            }
+        }
+
+        @Override
+        void writeTo(OutputStream outputStream) throws IOException {
+            writeTo(outputStream, null);
+        }
+
+        @Override
+        void writeTo(OutputStream outputStream, CallEvents events) throws IOException {
+            final JsonWriter writer = new JsonWriter(outputStream);
+            try {
+                write(writer);
+                writer.flush();
+                if (events != null)
+                    events.attachmentsWritten(writer);
+            } finally {
+                writer.release();
+            }
+        }
+
+        @Override
+        void writeFingerprint(OutputStream outputStream) throws IOException {
+            final JsonWriter writer = new JsonWriter(outputStream);
+            try {
+                SendGridMailBody.writeMailBody(writer, recipients, prototype.fragment,
+                        prototype.attachments, SendGridMailBody.AttachmentSources.FINGERPRINTS);
+                writer.flush();
+            } finally {
+                writer.release();
+            }
+        }
+
+        private void write(JsonWriter writer) throws IOException {
+            SendGridMailBody.writeMailBody(writer, recipients, prototype.fragment,
+                    prototype.attachments, attachmentSources);
+        }
+    }
+
+}
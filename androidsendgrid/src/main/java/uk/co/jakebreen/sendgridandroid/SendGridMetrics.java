@@ -0,0 +1,200 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link EventListener} keeping counters and {@link LatencyHistogram}s of every call,
+ * to be read on demand. Recording takes a few atomic operations per event, so it can
+ * be left on in production.
+ *
+ * <pre>
+ * SendGridMetrics metrics = new SendGridMetrics();
+ * SendGrid sendGrid = SendGrid.builder(apiKey).setEventListener(metrics).build();
+ * long p99 = metrics.getCallDuration().getPercentile(99, TimeUnit.MILLISECONDS);
+ * </pre>
+ */
+public class SendGridMetrics extends EventListener {
+
+    private final LatencyHistogram callDuration = new LatencyHistogram();
+    private final LatencyHistogram serialization = new LatencyHistogram();
+    private final LatencyHistogram connectionAcquire = new LatencyHistogram();
+    private final LatencyHistogram tlsHandshake = new LatencyHistogram();
+    private final LatencyHistogram attachmentEncoding = new LatencyHistogram();
+    private final LatencyHistogram upload = new LatencyHistogram();
+    private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+
+    private final AtomicLong failedCalls = new AtomicLong();
+    private final AtomicLong newConnections = new AtomicLong();
+    private final AtomicLong reusedConnections = new AtomicLong();
+    private final AtomicLong bytesUploaded = new AtomicLong();
+    private final AtomicLong[] responses = new AtomicLong[6];
+
+    public SendGridMetrics() {
+        for (int i = 0; i < responses.length; i++)
+            responses[i] = new AtomicLong();
+    }
+
+    @Override
+    public void bodySerialized(long callId, long contentLength, long durationNanos) {
+        serialization.record(durationNanos);
+    }
+
+    @Override
+    public void connectionAcquired(long callId, boolean reused, long durationNanos) {
+        (reused ? reusedConnections : newConnections).incrementAndGet();
+        connectionAcquire.record(durationNanos);
+    }
+
+    @Override
+    public void secureConnectEnd(long callId, long durationNanos) {
+        tlsHandshake.record(durationNanos);
+    }
+
+    @Override
+    public void attachmentsEncoded(long callId, long encodedBytes, long durationNanos) {
+        attachmentEncoding.record(durationNanos);
+    }
+
+    @Override
+    public void requestBodyEnd(long callId, long bytes, long durationNanos) {
+        bytesUploaded.addAndGet(bytes);
+        upload.record(durationNanos);
+    }
+
+    @Override
+    public void responseHeadersEnd(long callId, int code, long timeToFirstByteNanos) {
+        final int statusClass = code / 100;
+        if (statusClass >= 0 && statusClass < responses.length)
+            responses[statusClass].incrementAndGet();
+        timeToFirstByte.record(timeToFirstByteNanos);
+    }
+
+    @Override
+    public void callEnd(long callId, @NonNull SendGridResponse response, long durationNanos) {
+        if (!response.isSuccessful())
+            failedCalls.incrementAndGet();
+        callDuration.record(durationNanos);
+    }
+
+    @Override
+    public void callFailed(long callId, @NonNull Exception exception, long durationNanos) {
+        failedCalls.incrementAndGet();
+        callDuration.record(durationNanos);
+    }
+
+    /**
+     * Durations of whole calls, including retries.
+     *
+     * @return the call duration histogram
+     */
+    public LatencyHistogram getCallDuration() {
+        return callDuration;
+    }
+
+    /**
+     * Durations of serializing bodies to measure their length.
+     *
+     * @return the serialization histogram
+     */
+    public LatencyHistogram getSerialization() {
+        return serialization;
+    }
+
+    /**
+     * Durations of acquiring connections, new or reused.
+     *
+     * @return the connection acquire histogram
+     */
+    public LatencyHistogram getConnectionAcquire() {
+        return connectionAcquire;
+    }
+
+    /**
+     * Durations of TLS handshakes of new connections.
+     *
+     * @return the TLS handshake histogram
+     */
+    public LatencyHistogram getTlsHandshake() {
+        return tlsHandshake;
+    }
+
+    /**
+     * Durations of encoding and writing attachment content.
+     *
+     * @return the attachment encoding histogram
+     */
+    public LatencyHistogram getAttachmentEncoding() {
+        return attachmentEncoding;
+    }
+
+    /**
+     * Durations of writing request bodies.
+     *
+     * @return the upload histogram
+     */
+    public LatencyHistogram getUpload() {
+        return upload;
+    }
+
+    /**
+     * Durations from the end of an upload to the response headers.
+     *
+     * @return the time to first byte histogram
+     */
+    public LatencyHistogram getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * The number of calls that ended unsuccessfully, with an error response or an
+     * exception.
+     *
+     * @return the failed call count
+     */
+    public long getFailedCallCount() {
+        return failedCalls.get();
+    }
+
+    /**
+     * The number of attempts made on a newly opened connection.
+     *
+     * @return the new connection count
+     */
+    public long getNewConnectionCount() {
+        return newConnections.get();
+    }
+
+    /**
+     * The number of attempts made on a kept-alive connection.
+     *
+     * @return the reused connection count
+     */
+    public long getReusedConnectionCount() {
+        return reusedConnections.get();
+    }
+
+    /**
+     * The number of request body bytes sent, after any compression.
+     *
+     * @return the uploaded byte count
+     */
+    public long getBytesUploaded() {
+        return bytesUploaded.get();
+    }
+
+    /**
+     * The number of responses received with a status code in the given class, such as
+     * 2 for 2xx or 4 for 4xx, counting every attempt.
+     *
+     * @param statusClass the first digit of the status code
+     * @return the response count
+     */
+    public long getResponseCount(int statusClass) {
+        if (statusClass < 0 || statusClass >= responses.length)
+            return 0;
+        return responses[statusClass].get();
+    }
+
+}
@@ -0,0 +1,690 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, on-disk queue of mails that survives the process being killed, created
+ * with {@link SendGrid#createOutbox(File)}.
+ *
+ * Mails are serialized into an append-only log of checksummed records. An enqueue
+ * returns once its record is on disk; concurrent enqueues, and the mails of one
+ * {@link #enqueueAll(Collection)}, share a single fsync. A background drainer sends
+ * the queued mails one after another and appends a completion record for each, and
+ * the log is compacted once most of it is made of completed entries.
+ *
+ * On reopening, the log is replayed and a torn or corrupt tail left by a crash is cut
+ * off, so an enqueued mail is never lost. A mail whose send was interrupted by the
+ * crash, before its completion record reached the disk, is sent again: delivery is
+ * at least once, with duplicates confined to that window.
+ */
+public class SendGridOutbox implements Closeable {
+
+    private static final String LOG_FILE = "outbox.log";
+    private static final String COMPACT_FILE = "outbox.log.compact";
+    private static final byte[] MAGIC = {'S', 'G', 'O', 'B', 1};
+
+    private static final byte TYPE_ENTRY = 1;
+    private static final byte TYPE_DONE = 2;
+    private static final int RECORD_HEADER = 1 + 8 + 4;
+    private static final int RECORD_TRAILER = 4;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long COMPACT_THRESHOLD = 1024 * 1024;
+    private static final long EMPTY_COMPACT_THRESHOLD = 64 * 1024;
+    private static final long RETRY_DELAY_MILLIS = 30 * 1000;
+
+    private final SendGrid sendGrid;
+    private final File directory;
+    private final File logFile;
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private final Map<Long, Entry> pending = new LinkedHashMap<>();
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private OutputStream output;
+    private long writtenPosition;
+    private long syncedPosition;
+    private long liveBytes;
+    private long nextId = 1;
+    private IOException failure;
+    private Thread drainer;
+    private volatile IOException drainError;
+    private volatile boolean closed;
+    private volatile Listener listener;
+
+    /**
+     * Receives the final response of every mail sent from the outbox.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the drainer thread once a mail has been sent, or has failed with an
+         * error retrying will not fix, and has been removed from the outbox.
+         *
+         * @param id       the id returned when the mail was enqueued
+         * @param response the response of the API request
+         */
+        void onSent(long id, @NonNull SendGridResponse response);
+    }
+
+    SendGridOutbox(SendGrid sendGrid, File directory) throws IOException {
+        this.sendGrid = sendGrid;
+        this.directory = directory;
+        this.logFile = new File(directory, LOG_FILE);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create outbox directory " + directory);
+        openLog();
+        recover();
+    }
+
+    /**
+     * Set a listener for the final response of each mail sent from the outbox.
+     *
+     * @param listener the listener, or null to remove it
+     */
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Serializes the mail into the outbox and returns once it is durably stored. The
+     * mail's attachments are copied into the outbox, so their files may be deleted
+     * afterwards.
+     * A mail larger than {@link SendGridMail#MAX_SIZE} is refused.
+     *
+     * @param mail the SendGridMail to queue
+     * @return the id of the outbox entry
+     */
+    public long enqueue(@NonNull SendGridMail mail) throws IOException {
+        final Entry entry;
+        final long position;
+        synchronized (writeLock) {
+            entry = append(mail);
+            position = writtenPosition;
+        }
+        sync(position);
+        publish(Collections.singletonList(entry));
+        return entry.id;
+    }
+
+    /**
+     * Serializes all mails into the outbox with a single fsync, returning once all of
+     * them are durably stored.
+     *
+     * @param mails the mails to queue
+     * @return the ids of the outbox entries, in the order of the mails
+     */
+    public List<Long> enqueueAll(@NonNull Collection<SendGridMail> mails) throws IOException {
+        final List<Entry> entries = new ArrayList<>(mails.size());
+        final long position;
+        synchronized (writeLock) {
+            for (SendGridMail mail : mails)
+                entries.add(append(mail));
+            position = writtenPosition;
+        }
+        sync(position);
+        publish(entries);
+        final List<Long> ids = new ArrayList<>(entries.size());
+        for (Entry entry : entries)
+            ids.add(entry.id);
+        return ids;
+    }
+
+    /**
+     * Returns the number of mails stored in the outbox that have not been sent yet.
+     *
+     * @return pending mail count
+     */
+    public int getPendingCount() {
+        synchronized (writeLock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Returns the error keeping the drainer from recording sent mails in the log, or
+     * null while it is working. The drainer holds on to the mail it has sent and
+     * retries every 30 seconds, sending nothing else until the log can be written.
+     *
+     * @return the last error writing the log, or null
+     */
+    @Nullable
+    public IOException getDrainError() {
+        return drainError;
+    }
+
+    /**
+     * Starts the background thread sending the outbox's mails, including any left
+     * over from a previous process.
+     */
+    public synchronized void start() {
+        if (drainer != null || closed)
+            return;
+        drainer = new Thread(this::drain, "SendGrid-outbox");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Stops the drainer and closes the log. Mails not sent yet stay in the outbox.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (this) {
+            if (drainer != null)
+                drainer.interrupt();
+        }
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                writeLock.notifyAll();
+                output.flush();
+                channel.force(false);
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the mail's record to the log buffer. The entry is only handed to the
+     * drainer by {@link #publish(List)} once the record is synced.
+     */
+    private Entry append(SendGridMail mail) throws IOException {
+        if (closed)
+            throw new IOException("Outbox is closed");
+        checkFailure();
+        final SendGridMailBody body = sendGrid.createBody(mail);
+        final long length = measure(body);
+        SendGridCall.checkBodySize(length);
+
+        final long id = nextId++;
+        final long start = writtenPosition;
+        final CRC32 crc = new CRC32();
+        final CountingOutputStream counting = new CountingOutputStream(output, crc);
+        try {
+            writeHeader(counting, TYPE_ENTRY, id, (int) length);
+            body.writeTo(counting);
+            if (counting.count != RECORD_HEADER + length)
+                throw new IOException("Mail changed while being written to the outbox");
+            writeInt(output, (int) crc.getValue());
+        } catch (IOException e) {
+            discardRecord(start);
+            throw e;
+        }
+        final Entry entry = new Entry(id, start + RECORD_HEADER, (int) length);
+        writtenPosition = start + recordSize(length);
+        liveBytes += recordSize(length);
+        pending.put(id, entry);
+        return entry;
+    }
+
+    /**
+     * Hands synced entries to the drainer, which reads their records back from the
+     * file and must not find them still in the write buffer.
+     */
+    private void publish(List<Entry> entries) {
+        synchronized (writeLock) {
+            queue.addAll(entries);
+            writeLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the length of the body, counting its content in a first pass when an
+     * attachment of unknown size, streamed from a content uri, leaves it undeclared.
+     */
+    private static long measure(RequestBody body) throws IOException {
+        final long length = body.getContentLength();
+        if (length >= 0)
+            return length;
+        final CountingOutputStream counting = new CountingOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, new CRC32());
+        body.writeTo(counting);
+        return counting.count;
+    }
+
+    /**
+     * Cuts the log back to the start of a record that could not be written whole, so
+     * the log stays a sequence of whole records. Should the records buffered ahead of
+     * it fail to flush as well, they are dropped with the buffer and every later write
+     * fails, as what reached the log is only known again once it is reopened and
+     * replayed.
+     */
+    private void discardRecord(long start) throws IOException {
+        try {
+            output.flush();
+        } catch (IOException e) {
+            failure = e;
+            output = new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE);
+        }
+        channel.truncate(start);
+        channel.position(start);
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("Outbox log failed, reopen the outbox", failure);
+    }
+
+    /**
+     * Appends the completion record of the entry, unless an earlier attempt already
+     * did, and syncs it.
+     */
+    private void markDone(Entry entry) throws IOException {
+        final long position;
+        synchronized (writeLock) {
+            checkFailure();
+            if (pending.containsKey(entry.id)) {
+                final long start = writtenPosition;
+                final CRC32 crc = new CRC32();
+                try {
+                    writeHeader(new CountingOutputStream(output, crc), TYPE_DONE, entry.id, 0);
+                    writeInt(output, (int) crc.getValue());
+                } catch (IOException e) {
+                    discardRecord(start);
+                    throw e;
+                }
+                writtenPosition += recordSize(0);
+                pending.remove(entry.id);
+                liveBytes -= recordSize(entry.length);
+            }
+            position = writtenPosition;
+        }
+        sync(position);
+    }
+
+    /**
+     * Forces everything written up to the position to disk. Whoever enters first
+     * syncs all records appended so far, so callers waiting behind it usually find
+     * their record already synced and return without an fsync of their own.
+     */
+    private void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            if (syncedPosition >= position)
+                return;
+            final long target;
+            synchronized (writeLock) {
+                checkFailure();
+                output.flush();
+                target = writtenPosition;
+            }
+            channel.force(false);
+            syncedPosition = target;
+        }
+    }
+
+    private void drain() {
+        while (!closed) {
+            final Entry entry;
+            try {
+                entry = nextEntry();
+            } catch (InterruptedException e) {
+                return;
+            }
+            final SendGridResponse response = sendGrid.execute(new EntryBody(logFile, entry));
+            if (isTransient(response)) {
+                entry.notBefore = System.currentTimeMillis() + RETRY_DELAY_MILLIS;
+                synchronized (writeLock) {
+                    queue.add(entry);
+                }
+                continue;
+            }
+            if (!complete(entry, response))
+                return;
+        }
+    }
+
+    /**
+     * Records the entry as sent and tells the listener, retrying after a delay while the
+     * log cannot be written rather than stopping the drainer.
+     *
+     * @return false once the outbox is closed
+     */
+    private boolean complete(Entry entry, SendGridResponse response) {
+        boolean done = false;
+        while (!closed) {
+            try {
+                if (!done) {
+                    markDone(entry);
+                    done = true;
+                    final Listener current = listener;
+                    if (current != null)
+                        current.onSent(entry.id, response);
+                }
+                compactIfNeeded();
+                drainError = null;
+                return true;
+            } catch (IOException e) {
+                drainError = e;
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private Entry nextEntry() throws InterruptedException {
+        synchronized (writeLock) {
+            while (true) {
+                if (closed)
+                    throw new InterruptedException();
+                final Entry head = queue.peek();
+                if (head == null) {
+                    writeLock.wait();
+                    continue;
+                }
+                final long delay = head.notBefore - System.currentTimeMillis();
+                if (delay > 0) {
+                    writeLock.wait(delay);
+                    continue;
+                }
+                return queue.poll();
+            }
+        }
+    }
+
+    private static boolean isTransient(SendGridResponse response) {
+        final int code = response.getCode();
+        return code == 0 || code == 429 || code >= 500;
+    }
+
+    /**
+     * Rewrites the log with only the pending entries once completed ones make up most
+     * of it, or sooner once nothing is pending. The new log is synced before it
+     * atomically replaces the old one.
+     */
+    private void compactIfNeeded() throws IOException {
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                final long threshold = liveBytes == 0 ? EMPTY_COMPACT_THRESHOLD : COMPACT_THRESHOLD;
+                if (writtenPosition < threshold || liveBytes * 2 > writtenPosition)
+                    return;
+                output.flush();
+                final File compactFile = new File(directory, COMPACT_FILE);
+                final RandomAccessFile compact = new RandomAccessFile(compactFile, "rw");
+                final long[] offsets = new long[pending.size()];
+                try {
+                    compact.setLength(0);
+                    compact.write(MAGIC);
+                    final FileChannel compactChannel = compact.getChannel();
+                    long position = MAGIC.length;
+                    int index = 0;
+                    for (Entry entry : pending.values()) {
+                        final long recordStart = entry.offset - RECORD_HEADER;
+                        final long size = recordSize(entry.length);
+                        long copied = 0;
+                        while (copied < size)
+                            copied += channel.transferTo(recordStart + copied, size - copied,
+                                    compactChannel);
+                        offsets[index++] = position + RECORD_HEADER;
+                        position += size;
+                    }
+                    compactChannel.force(false);
+                } finally {
+                    compact.close();
+                }
+                file.close();
+                final boolean replaced = compactFile.renameTo(logFile);
+                // Without the new log the old one is still whole, keep appending to it.
+                openLog();
+                if (!replaced) {
+                    channel.position(writtenPosition);
+                    throw new IOException("Cannot replace outbox log");
+                }
+                int index = 0;
+                for (Entry entry : pending.values())
+                    entry.offset = offsets[index++];
+                writtenPosition = channel.size();
+                syncedPosition = writtenPosition;
+                channel.position(writtenPosition);
+            }
+        }
+    }
+
+    private void openLog() throws IOException {
+        file = new RandomAccessFile(logFile, "rw");
+        channel = file.getChannel();
+        output = new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * Replays the log to rebuild the pending entries, cutting off the log at the
+     * first record that is incomplete or fails its checksum.
+     */
+    private void recover() throws IOException {
+        final long size = channel.size();
+        if (size < MAGIC.length) {
+            channel.truncate(0);
+            channel.position(0);
+            output.write(MAGIC);
+            output.flush();
+            channel.force(false);
+            writtenPosition = syncedPosition = MAGIC.length;
+            return;
+        }
+        final byte[] magic = new byte[MAGIC.length];
+        file.seek(0);
+        file.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i])
+                throw new IOException("Not an outbox log: " + logFile);
+        }
+
+        final Map<Long, Entry> entries = new HashMap<>();
+        final List<Entry> order = new ArrayList<>();
+        final byte[] buffer = new byte[8 * 1024];
+        long position = MAGIC.length;
+        while (true) {
+            final Entry record = readRecord(position, size, buffer);
+            if (record == null)
+                break;
+            if (record.type == TYPE_ENTRY) {
+                entries.put(record.id, record);
+                order.add(record);
+            } else {
+                entries.remove(record.id);
+            }
+            nextId = Math.max(nextId, record.id + 1);
+            position += recordSize(record.length);
+        }
+        if (position < size) {
+            channel.truncate(position);
+            channel.force(false);
+        }
+        for (Entry entry : order) {
+            if (entries.containsKey(entry.id)) {
+                pending.put(entry.id, entry);
+                queue.add(entry);
+                liveBytes += recordSize(entry.length);
+            }
+        }
+        channel.position(position);
+        writtenPosition = syncedPosition = position;
+    }
+
+    private Entry readRecord(long position, long size, byte[] buffer) throws IOException {
+        if (position + RECORD_HEADER + RECORD_TRAILER > size)
+            return null;
+        try {
+            file.seek(position);
+            final byte type = file.readByte();
+            final long id = file.readLong();
+            final int length = file.readInt();
+            if ((type != TYPE_ENTRY && type != TYPE_DONE) || length < 0
+                    || position + recordSize(length) > size)
+                return null;
+            final CRC32 crc = new CRC32();
+            crc.update(type);
+            updateLong(crc, id);
+            updateInt(crc, length);
+            int remaining = length;
+            while (remaining > 0) {
+                final int read = file.read(buffer, 0, Math.min(buffer.length, remaining));
+                if (read == -1)
+                    return null;
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+            if (file.readInt() != (int) crc.getValue())
+                return null;
+            final Entry entry = new Entry(id, position + RECORD_HEADER, length);
+            entry.type = type;
+            return entry;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static long recordSize(long length) {
+        return RECORD_HEADER + length + RECORD_TRAILER;
+    }
+
+    private static void writeHeader(OutputStream outputStream, byte type, long id, int length) throws IOException {
+        outputStream.write(type);
+        writeLong(outputStream, id);
+        writeInt(outputStream, length);
+    }
+
+    private static void writeLong(OutputStream outputStream, long value) throws IOException {
+        writeInt(outputStream, (int) (value >>> 32));
+        writeInt(outputStream, (int) value);
+    }
+
+    private static void writeInt(OutputStream outputStream, int value) throws IOException {
+        outputStream.write(value >>> 24);
+        outputStream.write(value >>> 16);
+        outputStream.write(value >>> 8);
+        outputStream.write(value);
+    }
+
+    private static void updateLong(CRC32 crc, long value) {
+        updateInt(crc, (int) (value >>> 32));
+        updateInt(crc, (int) value);
+    }
+
+    private static void updateInt(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    private static class Entry {
+        final long id;
+        final int length;
+        long offset;
+        long notBefore;
+        byte type = TYPE_ENTRY;
+
+        Entry(long id, long offset, int length) {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Checksums and counts the bytes of a record as it is written.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final CRC32 crc;
+        long count;
+
+        CountingOutputStream(OutputStream outputStream, CRC32 crc) {
+            super(outputStream);
+            this.crc = crc;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() {
+            // The log stays open, records are appended to it one after another.
+        }
+    }
+
+    /**
+     * Sends a stored request body straight from the log file.
+     */
+    private static class EntryBody extends RequestBody {
+        private final File logFile;
+        private final long offset;
+        private final int length;
+
+        EntryBody(File logFile, Entry entry) {
+            this.logFile = logFile;
+            this.offset = entry.offset;
+            this.length = entry.length;
+        }
+
+        @Override
+        long getContentLength() {
+            return length;
+        }
+
+        @Override
+        void writeTo(OutputStream outputStream) throws IOException {
+            final RandomAccessFile input = new RandomAccessFile(logFile, "r");
+            final byte[] buffer = BufferPool.shared().acquire(8 * 1024);
+            try {
+                input.seek(offset);
+                int remaining = length;
+                while (remaining > 0) {
+                    final int read = input.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read == -1)
+                        throw new EOFException("Outbox entry truncated");
+                    outputStream.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                BufferPool.shared().release(buffer);
+                input.close();
+            }
+        }
+    }
+
+}
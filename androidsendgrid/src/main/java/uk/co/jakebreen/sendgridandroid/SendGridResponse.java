@@ -1,19 +1,26 @@
 package uk.co.jakebreen.sendgridandroid;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.Collections;
+import java.util.List;
+
 public class SendGridResponse {
 
     private final int code;
-    private final String errorMessage;
+    private final String body;
+    private final String errorBody;
+    private final String failureMessage;
+    private volatile List<SendGridError> errors;
+    private volatile String errorMessage;
 
-    private SendGridResponse(int code, @Nullable String errorMessage) {
+    private SendGridResponse(int code, @Nullable String body, @Nullable String errorBody,
+                             @Nullable String failureMessage) {
         this.code = code;
-        this.errorMessage = errorMessage;
-    }
-
-    private static SendGridResponse create(int code, String errorMessage) {
-        return new SendGridResponse(code, errorMessage);
+        this.body = body;
+        this.errorBody = errorBody;
+        this.failureMessage = failureMessage;
     }
 
     /**
@@ -22,7 +29,7 @@ public class SendGridResponse {
      * @return boolean success state
      */
     public boolean isSuccessful() {
-        return errorMessage == null;
+        return code >= 200 && code < 300;
     }
 
     /**
@@ -35,23 +42,80 @@ public class SendGridResponse {
     }
 
     /**
-     * Returns the associated error message of a failed response.
+     * Returns the associated error message of a failed response, the message of the
+     * first error returned by the API or of the exception the request failed with.
      * NULL when successful.
      *
+     * The error body is only parsed the first time it is asked for.
+     *
      * @return response error message
      */
     public String getErrorMessage() {
-        return errorMessage;
+        if (isSuccessful())
+            return null;
+        if (failureMessage != null)
+            return failureMessage;
+        String message = errorMessage;
+        if (message == null) {
+            message = ErrorParser.parseError(errorBody);
+            errorMessage = message;
+        }
+        return message;
+    }
+
+    /**
+     * Returns every error returned by the API for a failed response, with the field
+     * each relates to. Empty when successful, when the request failed before a
+     * response was received or when the error body could not be parsed.
+     *
+     * The error body is only parsed the first time it is asked for.
+     *
+     * @return the errors of the response
+     */
+    @NonNull
+    public List<SendGridError> getErrors() {
+        List<SendGridError> result = errors;
+        if (result == null) {
+            result = Collections.emptyList();
+            if (errorBody != null) {
+                try {
+                    result = Collections.unmodifiableList(ErrorParser.parseErrors(errorBody));
+                } catch (ErrorParser.MalformedJsonException ignored) {
+                }
+            }
+            errors = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the body of a successful response, or null if it had none. Sending mail
+     * returns no body, other API calls made by the library do.
+     */
+    String getBody() {
+        return body;
     }
 
     static class Factory {
 
         static SendGridResponse success(int response) {
-            return SendGridResponse.create(response, null);
+            return new SendGridResponse(response, null, null, null);
+        }
+
+        static SendGridResponse success(int response, String body) {
+            return new SendGridResponse(response, body, null, null);
+        }
+
+        /**
+         * Keeps the error body to be parsed when the errors are first asked for.
+         */
+        static SendGridResponse error(int response, String errorBody) {
+            return new SendGridResponse(response, null, errorBody, null);
         }
 
-        static SendGridResponse error(int response, String errorMessage) {
-            return SendGridResponse.create(response, ErrorParser.parseError(errorMessage));
+        static SendGridResponse failure(Exception exception) {
+            final String message = exception.getMessage();
+            return new SendGridResponse(0, null, null, message != null ? message : exception.toString());
         }
 
     }
@@ -0,0 +1,300 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds mails on the device until they are due, created with
+ * {@link SendGrid#createScheduler(long, TimeUnit)}. Unlike
+ * {@link SendGridMail#setSendAt(int)}, a scheduled mail can be cancelled up to the
+ * moment it is sent.
+ *
+ * Mails are kept in a hierarchical timing wheel, so holding many of them costs a few
+ * references each and scheduling or cancelling one takes constant time however far
+ * ahead it is due. Time moves in ticks, mails due within the same tick are sent
+ * together on this instance's worker pool like {@link SendGrid#sendAll(java.util.Collection)},
+ * and a single timer only wakes up on ticks where mails fall due or move down the
+ * wheel.
+ *
+ * A scheduler created with a hand-off horizon passes each mail to SendGrid once it is
+ * due within the horizon, with its send time and a batch id of its own, and no longer
+ * needs the app to be running when the mail is due. Cancelling such a mail cancels
+ * its batch with SendGrid. Should no batch id be created, the mail is held and sent on
+ * the device instead.
+ *
+ * Mails are only held in memory, they are lost with the process. Use a
+ * {@link SendGridOutbox} for mails that must survive it.
+ */
+public class SendGridScheduler {
+
+    /**
+     * The furthest ahead SendGrid accepts a send time.
+     */
+    static final long MAX_HAND_OFF_MILLIS = TimeUnit.HOURS.toMillis(72);
+
+    private static final int WAITING = 0;
+    private static final int HANDING_OFF = 1;
+    private static final int HANDED_OFF = 2;
+    private static final int SENT = 3;
+    private static final int CANCELLED = 4;
+
+    private final SendGrid sendGrid;
+    private final Executor executor;
+    private final ScheduledExecutorService timer;
+    private final Clock clock;
+    private final long handOffMillis;
+    private final int maxConcurrentRequests;
+    private final TimingWheel<Entry> wheel;
+    private ScheduledFuture<?> wakeUp;
+    private long wakeUpAt;
+    private long wakeUpGeneration;
+
+    SendGridScheduler(SendGrid sendGrid, Executor executor, ScheduledExecutorService timer, Clock clock,
+                      int maxConcurrentRequests, long tickMillis, long handOffMillis) {
+        this.sendGrid = sendGrid;
+        this.executor = executor;
+        this.timer = timer;
+        this.clock = clock;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.handOffMillis = handOffMillis;
+        this.wheel = new TimingWheel<>(tickMillis, clock.currentTimeMillis());
+    }
+
+    /**
+     * Schedules the mail to be sent at the given unix timestamp, or straight away if the
+     * time has passed. The mail must not be modified afterwards, and its own send time
+     * is replaced by the scheduled one when it is handed off.
+     *
+     * Cancelling the returned future takes the mail out of the scheduler. A mail that
+     * was handed off is cancelled with SendGrid in the background, one already being
+     * sent from the device may still be sent.
+     *
+     * @param mail   the SendGridMail to send to the API
+     * @param sendAt the unix timestamp of when the mail should be sent
+     * @return the response of the send, or of handing the mail off
+     */
+    public SendGridFuture schedule(@NonNull SendGridMail mail, int sendAt) {
+        return scheduleAt(mail, TimeUnit.SECONDS.toMillis(sendAt));
+    }
+
+    /**
+     * Schedules the mail to be sent once the delay has passed, like
+     * {@link #schedule(SendGridMail, int)}.
+     *
+     * @param mail  the SendGridMail to send to the API
+     * @param delay how long from now the mail should be sent
+     * @param unit  the unit of the delay
+     * @return the response of the send, or of handing the mail off
+     */
+    public SendGridFuture schedule(@NonNull SendGridMail mail, long delay, @NonNull TimeUnit unit) {
+        if (delay < 0)
+            throw new IllegalArgumentException("delay < 0");
+        return scheduleAt(mail, clock.currentTimeMillis() + unit.toMillis(delay));
+    }
+
+    /**
+     * Returns the number of mails held by the scheduler, including handed off ones
+     * that are not yet due.
+     *
+     * @return the number of mails held
+     */
+    public synchronized int size() {
+        return wheel.size();
+    }
+
+    private SendGridFuture scheduleAt(SendGridMail mail, long sendAtMillis) {
+        mail.checkUnsplit();
+        final Entry entry = new Entry(mail, sendAtMillis, handOffMillis > 0);
+        entry.future = sendGrid.newFuture(() -> cancel(entry));
+        entry.deadlineMillis = handOffMillis > 0 ? sendAtMillis - handOffMillis : sendAtMillis;
+        final boolean due;
+        synchronized (this) {
+            due = !wheel.add(entry);
+            if (!due)
+                scheduleWakeUp();
+        }
+        if (due) {
+            final List<Entry> entries = new ArrayList<>(1);
+            entries.add(entry);
+            dispatch(entries);
+        }
+        return entry.future;
+    }
+
+    /**
+     * Moves the wheel up to the current time and dispatches every mail that fell due,
+     * then sets the timer for the next tick anything happens on.
+     */
+    void tick() {
+        final List<Entry> due = new ArrayList<>();
+        synchronized (this) {
+            wheel.advance(clock.currentTimeMillis(), due);
+            scheduleWakeUp();
+        }
+        dispatch(due);
+    }
+
+    private void scheduleWakeUp() {
+        final long next = wheel.nextEventMillis();
+        if (wakeUp != null && next == wakeUpAt)
+            return;
+        if (wakeUp != null)
+            wakeUp.cancel(false);
+        wakeUp = null;
+        if (next == Long.MAX_VALUE)
+            return;
+        wakeUpAt = next;
+        final long generation = ++wakeUpGeneration;
+        wakeUp = timer.schedule(() -> wokeUp(generation), Math.max(0, next - clock.currentTimeMillis()),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a tick for the timer, which is no longer pending whatever the wall clock
+     * reads. The timer waits on the monotonic clock, so it can fire before the wall
+     * clock reaches its time, in which case the tick sets it again.
+     */
+    private void wokeUp(long generation) {
+        synchronized (this) {
+            if (generation == wakeUpGeneration)
+                wakeUp = null;
+        }
+        tick();
+    }
+
+    /**
+     * Sends the due mails together, hands off those due at least a second from now, and
+     * completes the futures of handed off mails whose time has come.
+     */
+    private void dispatch(List<Entry> due) {
+        final List<SendGridMail> mails = new ArrayList<>();
+        final List<SendGridFuture> futures = new ArrayList<>();
+        final List<Entry> handOffs = new ArrayList<>();
+        final List<Entry> handedOff = new ArrayList<>();
+        final long now = clock.currentTimeMillis();
+        synchronized (this) {
+            for (Entry entry : due) {
+                if (entry.state == HANDED_OFF) {
+                    entry.state = SENT;
+                    handedOff.add(entry);
+                } else if (entry.state != WAITING) {
+                    continue;
+                } else if (entry.handOff && entry.sendAtMillis - now >= TimeUnit.SECONDS.toMillis(1)) {
+                    entry.state = HANDING_OFF;
+                    handOffs.add(entry);
+                } else {
+                    entry.state = SENT;
+                    mails.add(entry.mail);
+                    futures.add(entry.future);
+                }
+            }
+        }
+        for (Entry entry : handedOff)
+            entry.future.complete(entry.response);
+        for (final Entry entry : handOffs)
+            executor.execute(() -> handOff(entry));
+        if (!mails.isEmpty())
+            new SendGridBatch(mails, null, futures).start(sendGrid, executor, maxConcurrentRequests);
+    }
+
+    /**
+     * Creates a batch id for the mail and sends it with its send time, then holds it
+     * until it is due, or cancels it straight away if it was cancelled meanwhile.
+     */
+    private void handOff(Entry entry) {
+        synchronized (this) {
+            if (entry.state == CANCELLED)
+                return;
+        }
+        final String batchId;
+        try {
+            batchId = sendGrid.createBatchId();
+        } catch (IOException e) {
+            synchronized (this) {
+                if (entry.state == CANCELLED)
+                    return;
+                entry.state = WAITING;
+                entry.handOff = false;
+                entry.deadlineMillis = entry.sendAtMillis;
+                if (wheel.add(entry)) {
+                    scheduleWakeUp();
+                    return;
+                }
+            }
+            final List<Entry> entries = new ArrayList<>(1);
+            entries.add(entry);
+            dispatch(entries);
+            return;
+        }
+
+        // A mail cancelled while the batch id was created is not sent, one cancelled from
+        // here on is cancelled with SendGrid once it has been.
+        synchronized (this) {
+            if (entry.state == CANCELLED)
+                return;
+        }
+        final int sendAt = (int) TimeUnit.MILLISECONDS.toSeconds(entry.sendAtMillis + 999);
+        final SendGridResponse response = sendGrid.execute(entry.mail.withSchedule(sendAt, batchId));
+        final boolean cancelled;
+        boolean due = false;
+        synchronized (this) {
+            cancelled = entry.state == CANCELLED;
+            if (!cancelled && response.isSuccessful()) {
+                entry.state = HANDED_OFF;
+                entry.batchId = batchId;
+                entry.response = response;
+                entry.deadlineMillis = entry.sendAtMillis;
+                due = !wheel.add(entry);
+                if (!due)
+                    scheduleWakeUp();
+            } else if (!cancelled) {
+                entry.state = SENT;
+            }
+        }
+        if (cancelled && response.isSuccessful())
+            sendGrid.cancelScheduledSend(batchId);
+        else if (!response.isSuccessful() || due)
+            entry.future.complete(response);
+    }
+
+    /**
+     * Takes a cancelled mail out of the wheel, cancelling it with SendGrid if it was
+     * handed off. A mail in the middle of being handed off is cancelled once it is.
+     */
+    private void cancel(final Entry entry) {
+        final String batchId;
+        synchronized (this) {
+            batchId = entry.state == HANDED_OFF ? entry.batchId : null;
+            if (entry.state == WAITING || entry.state == HANDED_OFF)
+                wheel.remove(entry);
+            if (entry.state != SENT)
+                entry.state = CANCELLED;
+        }
+        if (batchId != null)
+            executor.execute(() -> sendGrid.cancelScheduledSend(batchId));
+    }
+
+    private static final class Entry extends TimingWheel.Timeout {
+        final SendGridMail mail;
+        final long sendAtMillis;
+        SendGridFuture future;
+        int state = WAITING;
+        boolean handOff;
+        String batchId;
+        SendGridResponse response;
+
+        Entry(SendGridMail mail, long sendAtMillis, boolean handOff) {
+            this.mail = mail;
+            this.sendAtMillis = sendAtMillis;
+            this.handOff = handOff;
+        }
+    }
+
+}
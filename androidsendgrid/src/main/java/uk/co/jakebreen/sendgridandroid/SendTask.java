@@ -2,6 +2,11 @@ package uk.co.jakebreen.sendgridandroid;
 
 import android.os.AsyncTask;
 
+/**
+ * @deprecated AsyncTask only runs one task at a time and leaks its activity when
+ * kept across configuration changes, use {@link SendGrid#sendAsync(SendGridMail)}.
+ */
+@Deprecated
 public class SendTask extends AsyncTask<Void, Void, SendGridResponse> {
 
     private final SendGrid sendGrid;
@@ -14,12 +19,7 @@ public class SendTask extends AsyncTask<Void, Void, SendGridResponse> {
 
     @Override
     protected SendGridResponse doInBackground(Void... voids) {
-        try {
-            return sendGrid.send(mail).call();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return SendGridResponse.Factory.error(0, e.getMessage());
-        }
+        return sendGrid.execute(mail);
     }
 
 }
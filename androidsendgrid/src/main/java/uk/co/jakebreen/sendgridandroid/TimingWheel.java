@@ -0,0 +1,191 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel holding timeouts cheaply however far ahead they are due.
+ *
+ * Time is counted in ticks. Level 0 has a slot per tick for the current run of
+ * {@link #SLOTS} ticks, each level above has a slot per whole wheel of the level
+ * below, so eight levels cover 2^48 ticks. A timeout sits in the lowest level whose
+ * current run of slots it falls within, and moves down a level each time the wheel
+ * reaches its slot, until it falls due on level 0. Adding and removing a timeout is
+ * O(1), each timeout is moved at most once per level, and every timeout due on the
+ * same tick comes out together.
+ *
+ * Not thread safe, the owner must synchronize access.
+ */
+final class TimingWheel<T extends TimingWheel.Timeout> {
+
+    static final int SLOTS = 64;
+    private static final int SLOT_BITS = 6;
+    private static final int LEVELS = 8;
+
+    /**
+     * A timeout held by at most one wheel at a time. The deadline must not change
+     * while it is held.
+     */
+    static class Timeout {
+        long deadlineMillis;
+        Timeout previous;
+        Timeout next;
+        int level = -1;
+        int slot;
+
+        boolean isScheduled() {
+            return level >= 0;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timeout[][] slots = new Timeout[LEVELS][SLOTS];
+    private final int[] levelSizes = new int[LEVELS];
+    private long currentTick;
+    private int size;
+
+    TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds the timeout, unless it is already due.
+     *
+     * @return false if the timeout is due by the current tick and was not added
+     */
+    boolean add(T timeout) {
+        // Round up, so a timeout never comes out before its deadline.
+        final long tick = (timeout.deadlineMillis + tickMillis - 1) / tickMillis;
+        if (tick <= currentTick)
+            return false;
+        int level = 0;
+        while (level < LEVELS - 1 && tick >>> (SLOT_BITS * (level + 1)) != currentTick >>> (SLOT_BITS * (level + 1)))
+            level++;
+        final int slot = (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.previous = null;
+        timeout.next = slots[level][slot];
+        if (timeout.next != null)
+            timeout.next.previous = timeout;
+        slots[level][slot] = timeout;
+        levelSizes[level]++;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes the timeout if it is held.
+     *
+     * @return true if the timeout was held and has been removed
+     */
+    boolean remove(T timeout) {
+        if (!timeout.isScheduled())
+            return false;
+        if (timeout.previous != null)
+            timeout.previous.next = timeout.next;
+        else
+            slots[timeout.level][timeout.slot] = timeout.next;
+        if (timeout.next != null)
+            timeout.next.previous = timeout.previous;
+        levelSizes[timeout.level]--;
+        size--;
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.level = -1;
+        return true;
+    }
+
+    /**
+     * Moves the wheel forward to the given time, adding every timeout that has fallen
+     * due to the list in the order of their ticks. Runs of ticks nothing can happen
+     * on are skipped in one step.
+     */
+    void advance(long nowMillis, List<T> due) {
+        final long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            final long next = nextEventTick();
+            if (next > targetTick) {
+                currentTick = targetTick;
+                return;
+            }
+            currentTick = next;
+            // Cascade from the top, so timeouts moved down are cascaded again on this
+            // tick by the levels below.
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0)
+                    cascade(level, (int) (currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1), due);
+            }
+            expire((int) currentTick & (SLOTS - 1), due);
+        }
+    }
+
+    /**
+     * Returns the time of the next tick anything happens on, a timeout falling due or
+     * moving down a level, or {@link Long#MAX_VALUE} when the wheel is empty.
+     */
+    long nextEventMillis() {
+        final long tick = nextEventTick();
+        return tick == Long.MAX_VALUE ? tick : tick * tickMillis;
+    }
+
+    /**
+     * Returns the earliest tick a held slot is reached on, across every level. Slots
+     * below the top level only hold ticks after the current one in the current run of
+     * their level, the top level's slots wrap around into the next run.
+     */
+    private long nextEventTick() {
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            if (levelSizes[level] == 0)
+                continue;
+            final int shift = SLOT_BITS * level;
+            final int runBits = shift + SLOT_BITS;
+            final long run = (currentTick >>> runBits) << runBits;
+            final int current = (int) (currentTick >>> shift) & (SLOTS - 1);
+            for (int i = 1; i <= SLOTS; i++) {
+                final int slot = (current + i) & (SLOTS - 1);
+                if (slots[level][slot] == null)
+                    continue;
+                long tick = run + ((long) slot << shift);
+                if (slot <= current)
+                    tick += 1L << runBits;
+                next = Math.min(next, tick);
+                break;
+            }
+        }
+        return next;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void cascade(int level, int slot, List<T> due) {
+        Timeout timeout = slots[level][slot];
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            remove((T) timeout);
+            if (!add((T) timeout))
+                due.add((T) timeout);
+            timeout = next;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expire(int slot, List<T> due) {
+        Timeout timeout = slots[0][slot];
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            remove((T) timeout);
+            due.add((T) timeout);
+            timeout = next;
+        }
+    }
+
+}
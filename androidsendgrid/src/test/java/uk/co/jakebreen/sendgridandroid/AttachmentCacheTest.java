@@ -0,0 +1,148 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import uk.co.jakebreen.sendgridandroid.SendGridMail.Attachment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class AttachmentCacheTest {
+
+    private File directory;
+
+    @Before
+    public void setup() throws Exception {
+        directory = File.createTempFile("attachments", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void givenSameFile_whenAttachedRepeatedly_thenItIsEncodedOnce() throws Exception {
+        AttachmentCache cache = AttachmentCache.builder().build();
+        Attachment attachment = new Attachment(createFile("terms.pdf", "terms and conditions"));
+
+        for (int i = 0; i < 5; i++)
+            cache.get(attachment);
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(4, cache.getHitCount());
+    }
+
+    @Test
+    public void givenCopiesOfAFile_whenAttached_thenTheyShareOneEntry() throws Exception {
+        AttachmentCache cache = AttachmentCache.builder().build();
+
+        cache.get(new Attachment(createFile("logo.png", "logo")));
+        cache.get(new Attachment(createFile("logo-copy.png", "logo")));
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void givenChangedFile_whenAttachedAgain_thenItIsEncodedAgain() throws Exception {
+        AttachmentCache cache = AttachmentCache.builder().build();
+        File file = createFile("report.csv", "a,b");
+        cache.get(new Attachment(file));
+
+        writeFile(file, "a,b,c");
+        cache.get(new Attachment(file));
+
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void givenDiskCache_whenCacheIsRecreated_thenEntriesSurvive() throws Exception {
+        File cacheDirectory = new File(directory, "cache");
+        Attachment attachment = new Attachment(createFile("terms.pdf", "terms and conditions"));
+        AttachmentCache.builder().setDiskCache(cacheDirectory, 1024 * 1024).build().get(attachment);
+
+        AttachmentCache reopened = AttachmentCache.builder().setDiskCache(cacheDirectory, 1024 * 1024).build();
+        reopened.get(attachment);
+
+        assertEquals(0, reopened.getMissCount());
+        assertEquals(1, reopened.getHitCount());
+    }
+
+    @Test
+    public void givenDiskEntryInUse_whenDiskIsTrimmed_thenItIsKept() throws Exception {
+        AttachmentCache cache = AttachmentCache.builder()
+                .setMaxMemorySize(0)
+                .setDiskCache(new File(directory, "cache"), 40)
+                .build();
+        JsonWriter.Base64Source terms = cache.get(new Attachment(createFile("terms.pdf", "terms and conditions")));
+        long length = terms.getEncodedLength();
+
+        cache.get(new Attachment(createFile("privacy.pdf", "privacy statement...")));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        terms.writeBase64(outputStream);
+        assertEquals(length, outputStream.size());
+    }
+
+    @Test
+    public void givenNoRoomInEitherTier_whenAttached_thenEveryLookupMisses() throws Exception {
+        AttachmentCache cache = AttachmentCache.builder().setMaxMemorySize(0).build();
+        Attachment attachment = new Attachment(createFile("terms.pdf", "terms and conditions"));
+
+        JsonWriter.Base64Source first = cache.get(attachment);
+        cache.get(attachment);
+
+        assertSame(attachment, first);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getMemorySize());
+    }
+
+    @Test
+    public void givenMailWithCachedAttachment_whenBodyIsMeasuredAndWritten_thenOneLookupIsCounted() throws Exception {
+        AttachmentCache cache = AttachmentCache.builder().build();
+        SendGridMail mail = new SendGridMail();
+        mail.addRecipient("john.doe@example.com", "John Doe");
+        mail.addAttachment(createFile("terms.pdf", "terms and conditions"));
+        SendGridMailBody body = SendGridMailBody.create(mail, cache);
+
+        body.getContentLength();
+        body.writeTo(new ByteArrayOutputStream());
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    private File createFile(String name, String content) throws IOException {
+        File file = new File(directory, name);
+        writeFile(file, content);
+        return file;
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File child : files)
+                delete(child);
+        file.delete();
+    }
+
+}
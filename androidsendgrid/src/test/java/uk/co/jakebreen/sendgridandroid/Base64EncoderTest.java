@@ -0,0 +1,92 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Base64EncoderTest {
+
+    private static final int[] LENGTHS = {0, 1, 2, 3, 4, 5, 6, 7,
+            Base64Encoder.BLOCK_SIZE - 1, Base64Encoder.BLOCK_SIZE, Base64Encoder.BLOCK_SIZE + 1,
+            2 * Base64Encoder.BLOCK_SIZE + 2};
+
+    private File file;
+
+    @After
+    public void tearDown() {
+        if (file != null)
+            file.delete();
+    }
+
+    @Test
+    public void givenAnyLength_whenEncodingStream_thenOutputMatchesRfc4648() throws Exception {
+        for (int length : LENGTHS) {
+            byte[] bytes = randomBytes(length);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+            long read = new Base64Encoder().encode(new ByteArrayInputStream(bytes), outputStream);
+
+            assertEquals(length, read);
+            assertArrayEquals("length " + length, Base64.getEncoder().encode(bytes), outputStream.toByteArray());
+            assertEquals(outputStream.size(), Base64Encoder.encodedLength(length));
+        }
+    }
+
+    @Test
+    public void givenStreamReturningShortReads_whenEncoding_thenOnlyLastGroupIsPadded() throws Exception {
+        final byte[] bytes = randomBytes(Base64Encoder.BLOCK_SIZE + 100);
+        InputStream trickle = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        new Base64Encoder().encode(trickle, outputStream);
+
+        assertArrayEquals(Base64.getEncoder().encode(bytes), outputStream.toByteArray());
+    }
+
+    @Test
+    public void givenFile_whenEncodingIntoArrayAndStream_thenBothMatchRfc4648() throws Exception {
+        byte[] bytes = randomBytes(3 * Base64Encoder.BLOCK_SIZE + 1);
+        file = createFile(bytes);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        byte[] encoded = FileEncoder.encodeFileToBase64(file);
+        FileEncoder.encodeFileToBase64(file, outputStream);
+
+        assertArrayEquals(Base64.getEncoder().encode(bytes), encoded);
+        assertArrayEquals(encoded, outputStream.toByteArray());
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static File createFile(byte[] bytes) throws IOException {
+        File file = File.createTempFile("encoder", ".bin");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+}
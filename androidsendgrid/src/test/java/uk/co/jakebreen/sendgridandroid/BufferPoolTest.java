@@ -0,0 +1,50 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BufferPoolTest {
+
+    @Test
+    public void givenReleasedBuffer_whenAcquiringSameLength_thenItIsReused() {
+        BufferPool pool = new BufferPool(1024);
+        byte[] buffer = pool.acquire(64);
+        pool.release(buffer);
+
+        assertSame(buffer, pool.acquire(64));
+        assertNotSame(buffer, pool.acquire(64));
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void givenFullPool_whenReleasing_thenBufferIsDropped() {
+        BufferPool pool = new BufferPool(100);
+        byte[] first = pool.acquire(64);
+        byte[] second = pool.acquire(64);
+
+        pool.release(first);
+        pool.release(second);
+
+        assertEquals(64, pool.getPooledBytes());
+        assertSame(first, pool.acquire(64));
+    }
+
+    @Test
+    public void givenLeakDetection_whenBufferIsNeverReleased_thenLeakIsReported() throws Exception {
+        BufferPool pool = new BufferPool(1024);
+        pool.setLeakDetection(true);
+        pool.release(pool.acquire(64));
+        pool.acquire(64);
+
+        for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, pool.getLeakCount());
+    }
+
+}
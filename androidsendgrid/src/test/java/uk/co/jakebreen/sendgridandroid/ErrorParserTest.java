@@ -0,0 +1,84 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static uk.co.jakebreen.sendgridandroid.ErrorParser.parseError;
+import static uk.co.jakebreen.sendgridandroid.ErrorParser.parseErrors;
+
+public class ErrorParserTest {
+
+    private static final String ERRORS = "{\n" +
+            "  \"errors\": [\n" +
+            "    {\n" +
+            "      \"message\": \"Does not contain a valid address.\",\n" +
+            "      \"field\": \"personalizations.0.to.0.email\",\n" +
+            "      \"help\": \"http://sendgrid.com/docs/API_Reference/Web_API_v3/Mail/errors.html#message.personalizations.to\"\n" +
+            "    },\n" +
+            "    {\n" +
+            "      \"message\": \"The from object must be provided for every email send.\",\n" +
+            "      \"field\": \"from\",\n" +
+            "      \"help\": null\n" +
+            "    }\n" +
+            "  ],\n" +
+            "  \"id\": \"7f9d\"\n" +
+            "}";
+
+    @Test
+    public void givenSeveralErrors_whenParsing_thenEveryErrorIsReturned() throws Exception {
+        List<SendGridError> errors = parseErrors(ERRORS);
+
+        assertEquals(2, errors.size());
+        assertEquals("Does not contain a valid address.", errors.get(0).getMessage());
+        assertEquals("personalizations.0.to.0.email", errors.get(0).getField());
+        assertEquals("http://sendgrid.com/docs/API_Reference/Web_API_v3/Mail/errors.html#message.personalizations.to",
+                errors.get(0).getHelp());
+        assertEquals("from", errors.get(1).getField());
+        assertNull(errors.get(1).getHelp());
+    }
+
+    @Test
+    public void givenEscapedMessage_whenParsing_thenMessageIsUnescaped() throws Exception {
+        List<SendGridError> errors = parseErrors("{\"errors\":[{\"message\":\"Caf\\u00e9 \\\"quoted\\\"\\n<\\/p>\"}]}");
+
+        assertEquals("Café \"quoted\"\n</p>", errors.get(0).getMessage());
+        assertNull(errors.get(0).getField());
+    }
+
+    @Test
+    public void givenUnknownMembers_whenParsing_thenTheyAreSkipped() throws Exception {
+        List<SendGridError> errors = parseErrors("{\"meta\":{\"a\":[1,2,{\"b\":true}]},\"errors\":[" +
+                "{\"code\":400,\"message\":\"Bad request\",\"details\":[\"x\",null]}]}");
+
+        assertEquals(1, errors.size());
+        assertEquals("Bad request", errors.get(0).getMessage());
+    }
+
+    @Test
+    public void givenFirstError_whenParsingMessage_thenFirstMessageIsReturned() {
+        assertEquals("Does not contain a valid address.", parseError(ERRORS));
+    }
+
+    @Test
+    public void givenMalformedBody_whenParsingMessage_thenDescribesParseFailure() {
+        assertTrue(parseError("<html>Bad Gateway</html>").startsWith("Error parsing error message"));
+        assertTrue(parseError("").startsWith("Error parsing error message"));
+    }
+
+    @Test
+    public void givenErrorResponse_whenNotAccessed_thenErrorsAreParsedOnDemand() {
+        SendGridResponse response = SendGridResponse.Factory.error(400, ERRORS);
+
+        assertFalse(response.isSuccessful());
+        assertEquals("Does not contain a valid address.", response.getErrorMessage());
+        assertEquals(2, response.getErrors().size());
+        assertTrue(SendGridResponse.Factory.success(202).getErrors().isEmpty());
+        assertTrue(SendGridResponse.Factory.error(502, "Bad Gateway").getErrors().isEmpty());
+    }
+
+}
@@ -0,0 +1,43 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Clock whose time only moves when asked to sleep, recording every sleep.
+ */
+class FakeClock implements Clock {
+
+    private long now;
+    private final List<Long> sleeps = Collections.synchronizedList(new ArrayList<>());
+
+    FakeClock(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return now;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return now * 1000000;
+    }
+
+    @Override
+    public void sleep(long millis) {
+        sleeps.add(millis);
+        advance(millis);
+    }
+
+    synchronized void advance(long millis) {
+        now += millis;
+    }
+
+    List<Long> getSleeps() {
+        return sleeps;
+    }
+
+}
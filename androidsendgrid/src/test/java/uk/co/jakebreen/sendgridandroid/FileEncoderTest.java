@@ -0,0 +1,136 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.util.Base64;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class FileEncoderTest {
+
+    private static final String AUTHORITY = "uk.co.jakebreen.sendgridandroid.test";
+    private static final String FILENAME = "photo.jpg";
+    private static final byte[] CONTENT = "Attachment content streamed from a content provider".getBytes();
+
+    private Context context;
+    private Uri uri;
+
+    @Before
+    public void setup() {
+        context = RuntimeEnvironment.application;
+        uri = Uri.parse("content://" + AUTHORITY + "/" + FILENAME);
+        Robolectric.setupContentProvider(AttachmentProvider.class, AUTHORITY);
+        shadowOf(context.getContentResolver()).registerInputStream(uri, new ByteArrayInputStream(CONTENT));
+        AttachmentProvider.size = (long) CONTENT.length;
+    }
+
+    @Test
+    public void givenContentUri_whenAttached_thenContentIsStreamedWithoutCopy() throws Exception {
+        SendGridMail mail = createMail();
+        mail.addAttachment(context, uri);
+        SendGridMailBody body = SendGridMailBody.create(mail);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        body.writeTo(outputStream);
+
+        JSONObject attachment = new JSONObject(outputStream.toString("UTF-8"))
+                .getJSONArray("attachments").getJSONObject(0);
+        assertEquals(FILENAME, attachment.getString("filename"));
+        assertEquals(Base64.encodeToString(CONTENT, Base64.NO_WRAP), attachment.getString("content"));
+        assertEquals(outputStream.size(), body.getContentLength());
+        assertTrue(isEmpty(context.getExternalCacheDir()));
+    }
+
+    @Test
+    public void givenContentUriWithoutSize_whenAttached_thenBodyLengthIsUnknown() throws Exception {
+        AttachmentProvider.size = null;
+        SendGridMail mail = createMail();
+        mail.addAttachment(context, uri);
+        SendGridMailBody body = SendGridMailBody.create(mail);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        body.writeTo(outputStream);
+
+        JSONObject attachment = new JSONObject(outputStream.toString("UTF-8"))
+                .getJSONArray("attachments").getJSONObject(0);
+        assertEquals(-1, body.getContentLength());
+        assertEquals(Base64.encodeToString(CONTENT, Base64.NO_WRAP), attachment.getString("content"));
+    }
+
+    private static boolean isEmpty(File directory) {
+        if (directory == null)
+            return true;
+        String[] files = directory.list();
+        return files == null || files.length == 0;
+    }
+
+    private SendGridMail createMail() {
+        SendGridMail mail = new SendGridMail();
+        mail.addRecipient("will.smith@example.com", null);
+        mail.setFrom("john.doe@example.com", "John Doe");
+        mail.setSubject("Mail subject");
+        mail.setContent("Email content body");
+        return mail;
+    }
+
+    public static class AttachmentProvider extends ContentProvider {
+
+        static Long size;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE});
+            cursor.addRow(new Object[]{uri.getLastPathSegment(), size});
+            return cursor;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return "image/jpeg";
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static uk.co.jakebreen.sendgridandroid.JsonReader.parseString;
+
+public class JsonReaderTest {
+
+    @Test
+    public void givenObjectWithStringMember_whenParsing_thenItsValueIsReturned() throws Exception {
+        String json = "{\"count\":2,\"nested\":{\"batch_id\":\"inner\"},\"batch_id\":\"YOUR_BATCH_ID\"}";
+
+        assertEquals("YOUR_BATCH_ID", parseString(json, "batch_id"));
+    }
+
+    @Test
+    public void givenObjectWithoutMember_whenParsing_thenNullIsReturned() throws Exception {
+        assertNull(parseString("{\"batch_id\":null}", "batch_id"));
+        assertNull(parseString("{}", "batch_id"));
+    }
+
+    @Test(expected = JsonReader.MalformedJsonException.class)
+    public void givenTruncatedObject_whenParsing_thenItFails() throws Exception {
+        parseString("{\"batch_id\":\"YOUR_BATCH_ID\"", "batch_id");
+    }
+
+}
@@ -0,0 +1,279 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Minimal HTTP/1.1 over TLS stand-in for the SendGrid API that honours keep-alive,
+ * counts TLS handshakes and requests, and records every request it receives unless
+ * started without recording.
+ */
+class LocalHttpsServer implements Closeable {
+
+    private static final String KEYSTORE = "/tls/localhost.jks";
+    private static final char[] PASSWORD = "password".toCharArray();
+
+    private final SSLServerSocket serverSocket;
+    private final SSLSocketFactory clientSocketFactory;
+    private final boolean recording;
+    private final AtomicInteger handshakes = new AtomicInteger();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final BlockingQueue<MockResponse> responses = new LinkedBlockingQueue<>();
+    private final List<RecordedRequest> requests = Collections.synchronizedList(new ArrayList<>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+
+    private LocalHttpsServer(SSLContext sslContext, boolean recording) throws IOException {
+        this.recording = recording;
+        serverSocket = (SSLServerSocket) sslContext.getServerSocketFactory()
+                .createServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        clientSocketFactory = sslContext.getSocketFactory();
+        final Thread acceptor = new Thread(this::acceptLoop, "LocalHttpsServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    static LocalHttpsServer start() throws Exception {
+        return start(true);
+    }
+
+    /**
+     * Starts a server, which without recording reads and drops request bodies, keeping
+     * only the count, so long benchmark runs do not hold every body they sent.
+     */
+    static LocalHttpsServer start(boolean recording) throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        final InputStream inputStream = LocalHttpsServer.class.getResourceAsStream(KEYSTORE);
+        try {
+            keyStore.load(inputStream, PASSWORD);
+        } finally {
+            inputStream.close();
+        }
+        final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        final TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        return new LocalHttpsServer(sslContext, recording);
+    }
+
+    /**
+     * Base URL in the same form as the production API root.
+     */
+    String getUrl() {
+        return "https://127.0.0.1:" + serverSocket.getLocalPort() + "/v3/";
+    }
+
+    /**
+     * A client socket factory trusting this server's certificate. It is a single
+     * instance, as connections are pooled per socket factory.
+     */
+    SSLSocketFactory getClientSocketFactory() {
+        return clientSocketFactory;
+    }
+
+    int getHandshakeCount() {
+        return handshakes.get();
+    }
+
+    int getRequestCount() {
+        return requestCount.get();
+    }
+
+    List<RecordedRequest> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Queues a response for the next request, requests beyond the queue get a 202.
+     */
+    void enqueue(MockResponse response) {
+        responses.add(response);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets)
+                socket.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final SSLSocket socket = (SSLSocket) serverSocket.accept();
+                sockets.add(socket);
+                final Thread worker = new Thread(() -> serve(socket), "LocalHttpsServer-connection");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException ignored) {
+                return;
+            }
+        }
+    }
+
+    private void serve(SSLSocket socket) {
+        try {
+            socket.startHandshake();
+            handshakes.incrementAndGet();
+            final InputStream inputStream = socket.getInputStream();
+            final OutputStream outputStream = socket.getOutputStream();
+            RecordedRequest request;
+            while ((request = readRequest(inputStream, recording)) != null) {
+                if (recording)
+                    requests.add(request);
+                requestCount.incrementAndGet();
+                final MockResponse response = responses.poll();
+                if (response != null && response.delayMillis > 0)
+                    Thread.sleep(response.delayMillis);
+                writeResponse(outputStream, response != null ? response : new MockResponse(202, ""));
+                if (response != null && response.closeConnection)
+                    break;
+            }
+        } catch (IOException | InterruptedException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static RecordedRequest readRequest(InputStream inputStream, boolean recording) throws IOException {
+        final String requestLine = readLine(inputStream);
+        if (requestLine == null || requestLine.isEmpty())
+            return null;
+        final Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(inputStream)) != null && !line.isEmpty()) {
+            final int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+        }
+        final OutputStream body = recording ? new ByteArrayOutputStream() : new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            int size;
+            while ((size = Integer.parseInt(readLine(inputStream).trim(), 16)) > 0) {
+                copy(inputStream, body, size);
+                readLine(inputStream);
+            }
+            readLine(inputStream);
+        } else if (headers.containsKey("content-length")) {
+            copy(inputStream, body, Long.parseLong(headers.get("content-length")));
+        }
+        return new RecordedRequest(requestLine, headers,
+                recording ? ((ByteArrayOutputStream) body).toByteArray() : new byte[0]);
+    }
+
+    private static void writeResponse(OutputStream outputStream, MockResponse response) throws IOException {
+        final byte[] body = response.body.getBytes("UTF-8");
+        final StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(response.code).append(" Status\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet())
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        if (response.closeConnection)
+            head.append("Connection: close\r\n");
+        head.append("\r\n");
+        outputStream.write(head.toString().getBytes("UTF-8"));
+        outputStream.write(body);
+        outputStream.flush();
+    }
+
+    private static String readLine(InputStream inputStream) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = inputStream.read()) != -1) {
+            if (c == '\n')
+                return line.toString();
+            if (c != '\r')
+                line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static void copy(InputStream inputStream, OutputStream outputStream, long count) throws IOException {
+        final byte[] buffer = new byte[8 * 1024];
+        while (count > 0) {
+            final int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (read == -1)
+                throw new IOException("Unexpected end of request body");
+            outputStream.write(buffer, 0, read);
+            count -= read;
+        }
+    }
+
+    static class MockResponse {
+        final int code;
+        final String body;
+        final Map<String, String> headers = new HashMap<>();
+        boolean closeConnection;
+        long delayMillis;
+
+        MockResponse(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        MockResponse header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * Holds the response back after the request was read, to stall the client.
+         */
+        MockResponse delay(long millis) {
+            delayMillis = millis;
+            return this;
+        }
+    }
+
+    static class RecordedRequest {
+        final String requestLine;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        RecordedRequest(String requestLine, Map<String, String> headers, byte[] body) {
+            this.requestLine = requestLine;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+    @Test
+    public void givenFullBucket_whenBurstIsUsed_thenFurtherPermitsAreRefused() {
+        RateLimiter limiter = new RateLimiter(10, 3, new FakeClock(0));
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void givenEmptyBucket_whenIntervalPasses_thenOnePermitIsRefilled() {
+        FakeClock clock = new FakeClock(0);
+        RateLimiter limiter = new RateLimiter(10, 1, clock);
+        assertTrue(limiter.tryAcquire());
+
+        clock.advance(99);
+        assertFalse(limiter.tryAcquire());
+        clock.advance(1);
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void givenEmptyBucket_whenAcquiring_thenWaitsForReservedPermits() throws Exception {
+        FakeClock clock = new FakeClock(0);
+        RateLimiter limiter = new RateLimiter(10, 1, clock);
+
+        limiter.acquire();
+        limiter.acquire();
+        limiter.acquire();
+
+        List<Long> expected = new ArrayList<>();
+        expected.add(100L);
+        expected.add(100L);
+        assertEquals(expected, clock.getSleeps());
+    }
+
+    @Test
+    public void givenConcurrentCallers_whenTryingToAcquire_thenOnlyBurstSucceeds() throws Exception {
+        final RateLimiter limiter = new RateLimiter(0.001, 50, new FakeClock(0));
+        final AtomicInteger acquired = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < 100; j++)
+                    if (limiter.tryAcquire())
+                        acquired.incrementAndGet();
+                done.countDown();
+            }).start();
+        }
+
+        done.await();
+
+        assertEquals(50, acquired.get());
+    }
+
+    @Test
+    public void givenSameApiKey_whenBuildingInstances_thenLimiterIsShared() {
+        SendGrid.builder("rate_limited_key").setRateLimit(10, 5).build();
+        RateLimiter limiter = RateLimiter.forApiKey("rate_limited_key");
+        SendGrid.builder("rate_limited_key").setRateLimit(100, 50).build();
+
+        assertSame(limiter, RateLimiter.forApiKey("rate_limited_key"));
+        assertNull(RateLimiter.forApiKey("unlimited_key"));
+    }
+
+}
@@ -0,0 +1,102 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RecipientsTest {
+
+    @Test
+    public void givenRecipients_whenIterating_thenTheyAreInInsertionOrder() {
+        Recipients recipients = new Recipients();
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            emails.add("recipient" + (99 - i) + "@example.com");
+            recipients.put(emails.get(i), null);
+        }
+
+        assertEquals(emails, new ArrayList<>(recipients.keySet()));
+    }
+
+    @Test
+    public void givenAddressWithDomainInOtherCase_whenAdding_thenFirstSpellingIsKeptWithNewName() {
+        Recipients recipients = new Recipients();
+        recipients.put("Will.Smith@Example.com", "Will");
+        assertEquals("Will", recipients.put("Will.Smith@EXAMPLE.COM", "Will Smith"));
+        recipients.put("will.smith@example.com", null);
+
+        assertEquals(2, recipients.size());
+        assertEquals(Arrays.asList("Will.Smith@Example.com", "will.smith@example.com"),
+                new ArrayList<>(recipients.keySet()));
+        assertEquals("Will Smith", recipients.get("Will.Smith@example.COM"));
+        assertEquals(SendGridMail.EMPTY, recipients.get("will.smith@example.com"));
+    }
+
+    @Test
+    public void givenSharedName_whenAdding_thenNameIsStoredOnce() {
+        Recipients recipients = new Recipients();
+        recipients.put("a@example.com", new String("Example Ltd"));
+        recipients.put("b@example.com", new String("Example Ltd"));
+
+        assertSame(recipients.get("a@example.com"), recipients.get("b@example.com"));
+    }
+
+    @Test
+    public void givenMoreThanMaximum_whenAddingInBulk_thenFirstThousandAreKept() {
+        Map<String, String> bulk = new LinkedHashMap<>();
+        for (int i = 0; i < Recipients.MAX_RECIPIENTS + 10; i++)
+            bulk.put("recipient" + i + "@example.com", "Recipient " + i);
+        SendGridMail mail = new SendGridMail();
+
+        mail.addRecipients(bulk);
+
+        assertEquals(Recipients.MAX_RECIPIENTS, mail.getRecipients().size());
+        assertTrue(mail.getRecipients().containsKey("recipient999@example.com"));
+        assertNull(mail.getRecipients().get("recipient1000@example.com"));
+    }
+
+    @Test
+    public void givenRecipientSplitting_whenSplitting_thenListsAreSpreadEvenlyInOrder() {
+        SendGridMail mail = new SendGridMail();
+        mail.setRecipientSplitting(true);
+        for (int i = 0; i < 2500; i++)
+            mail.addRecipient("recipient" + i + "@example.com", null);
+        for (int i = 0; i < 10; i++)
+            mail.addRecipientBlindCarbonCopy("hidden" + i + "@example.com", null);
+
+        List<SendGridMail> mails = mail.splitRecipients();
+
+        assertEquals(3, mails.size());
+        List<String> recipients = new ArrayList<>();
+        int blindCarbonCopies = 0;
+        for (SendGridMail part : mails) {
+            int size = part.getRecipients().size() + part.getRecipientBlindCarbonCopies().size();
+            assertTrue(size <= Recipients.MAX_RECIPIENTS);
+            recipients.addAll(part.getRecipients().keySet());
+            blindCarbonCopies += part.getRecipientBlindCarbonCopies().size();
+        }
+        assertEquals(new ArrayList<>(mail.getRecipients().keySet()), recipients);
+        assertEquals(10, blindCarbonCopies);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenTooFewRecipientsForRequests_whenSplitting_thenThrows() {
+        SendGridMail mail = new SendGridMail();
+        mail.setRecipientSplitting(true);
+        mail.addRecipient("will.smith@example.com", null);
+        for (int i = 0; i < 1500; i++)
+            mail.addRecipientBlindCarbonCopy("hidden" + i + "@example.com", null);
+
+        mail.splitRecipients();
+    }
+
+}
@@ -0,0 +1,312 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SendGridCallTest {
+
+    private static final String MAIL_URL = "mail/send";
+    private static final String CREDENTIALS = "Bearer api_key";
+    private static final int SENDS = 10;
+
+    private LocalHttpsServer server;
+    private SendGridCall api;
+
+    @Before
+    public void setup() throws Exception {
+        server = LocalHttpsServer.start();
+        api = new SendGridCall(server.getUrl(), server.getClientSocketFactory());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void givenSequentialSends_whenConnectionIsKeptAlive_thenOnlyOneHandshakeIsMade() throws Exception {
+        for (int i = 0; i < SENDS; i++) {
+            SendGridResponse response = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+            assertTrue(response.isSuccessful());
+        }
+
+        assertEquals(SENDS, server.getRequestCount());
+        assertEquals(1, server.getHandshakeCount());
+    }
+
+    @Test
+    public void givenErrorResponse_whenErrorBodyIsDrained_thenConnectionIsReused() throws Exception {
+        server.enqueue(new LocalHttpsServer.MockResponse(400,
+                "{\"errors\":[{\"message\":\"Does not contain a valid address.\"}]}"));
+
+        SendGridResponse failed = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+        SendGridResponse succeeded = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+
+        assertFalse(failed.isSuccessful());
+        assertEquals("Does not contain a valid address.", failed.getErrorMessage());
+        assertTrue(succeeded.isSuccessful());
+        assertEquals(1, server.getHandshakeCount());
+    }
+
+    @Test
+    public void givenMultiLineErrorBody_whenAccessingErrors_thenEveryErrorIsReturned() throws Exception {
+        server.enqueue(new LocalHttpsServer.MockResponse(400, "{\n\"errors\": [\n" +
+                "{\"message\": \"Does not contain a valid address.\", \"field\": \"personalizations.0.to.0.email\"},\n" +
+                "{\"message\": \"The subject is required.\", \"field\": \"subject\"}\n]}"));
+
+        SendGridResponse response = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+
+        assertEquals(2, response.getErrors().size());
+        assertEquals("subject", response.getErrors().get(1).getField());
+    }
+
+    @Test
+    public void givenSuccessfulResponseWithBody_whenBodyIsDrained_thenConnectionIsReused() throws Exception {
+        server.enqueue(new LocalHttpsServer.MockResponse(200, "{\"result\":\"ok\"}"));
+
+        SendGridResponse first = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+        SendGridResponse second = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+
+        assertTrue(first.isSuccessful());
+        assertNull(first.getErrorMessage());
+        assertNull(first.getBody());
+        assertTrue(second.isSuccessful());
+        assertEquals(1, server.getHandshakeCount());
+    }
+
+    @Test
+    public void givenCallKeepingBody_whenSuccessful_thenBodyIsKept() throws Exception {
+        server.enqueue(new LocalHttpsServer.MockResponse(201, "{\"batch_id\":\"YOUR_BATCH_ID\"}"));
+
+        SendGridResponse response = api.call("mail/batch", CREDENTIALS, RequestBody.create(new byte[0]),
+                null, null, true).call();
+
+        assertTrue(response.isSuccessful());
+        assertEquals("{\"batch_id\":\"YOUR_BATCH_ID\"}", response.getBody());
+    }
+
+    @Test
+    public void givenMailBody_whenSent_thenContentLengthMatchesBody() throws Exception {
+        api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+
+        LocalHttpsServer.RecordedRequest request = server.getRequests().get(0);
+        assertEquals(String.valueOf(request.body.length), request.getHeader("Content-Length"));
+        assertEquals(CREDENTIALS, request.getHeader("Authorization"));
+    }
+
+    @Test
+    public void givenRateLimitedResponse_whenRetrying_thenRetryAfterIsHonoured() throws Exception {
+        FakeClock clock = new FakeClock(0);
+        api.setRetryPolicy(RetryPolicy.builder().setBaseDelay(10, TimeUnit.MILLISECONDS).build(), clock);
+        server.enqueue(new LocalHttpsServer.MockResponse(503, ""));
+        server.enqueue(new LocalHttpsServer.MockResponse(429, "").header("Retry-After", "2"));
+
+        SendGridResponse response = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+
+        assertTrue(response.isSuccessful());
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, clock.getSleeps().size());
+        assertEquals(2000L, (long) clock.getSleeps().get(1));
+        assertEquals(1, server.getHandshakeCount());
+    }
+
+    @Test
+    public void givenRateLimitReset_whenRetrying_thenWaitsUntilReset() throws Exception {
+        FakeClock clock = new FakeClock(1000000);
+        api.setRetryPolicy(RetryPolicy.builder().setBaseDelay(10, TimeUnit.MILLISECONDS).build(), clock);
+        server.enqueue(new LocalHttpsServer.MockResponse(429, "").header("X-RateLimit-Reset", "1005"));
+
+        SendGridResponse response = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+
+        assertTrue(response.isSuccessful());
+        assertEquals(5000L, (long) clock.getSleeps().get(0));
+    }
+
+    @Test
+    public void givenClientError_whenRetrying_thenRequestIsNotRepeated() throws Exception {
+        api.setRetryPolicy(RetryPolicy.builder().build(), new FakeClock(0));
+        server.enqueue(new LocalHttpsServer.MockResponse(400, ""));
+
+        SendGridResponse response = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+
+        assertFalse(response.isSuccessful());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void givenPersistentServerError_whenAttemptsRunOut_thenLastResponseIsReturned() throws Exception {
+        FakeClock clock = new FakeClock(0);
+        api.setRetryPolicy(RetryPolicy.builder().setMaxAttempts(3).build(), clock);
+        for (int i = 0; i < 3; i++)
+            server.enqueue(new LocalHttpsServer.MockResponse(500, ""));
+
+        SendGridResponse response = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+
+        assertEquals(500, response.getCode());
+        assertEquals(3, server.getRequestCount());
+        for (long sleep : clock.getSleeps())
+            assertTrue(sleep >= 500 && sleep <= 30000);
+    }
+
+    @Test
+    public void givenServerDelayBeyondElapsedLimit_whenRetrying_thenGivesUp() throws Exception {
+        api.setRetryPolicy(RetryPolicy.builder().setMaxElapsed(1, TimeUnit.SECONDS).build(), new FakeClock(0));
+        server.enqueue(new LocalHttpsServer.MockResponse(429, "").header("Retry-After", "60"));
+
+        SendGridResponse response = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+
+        assertEquals(429, response.getCode());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void givenBodyAboveThreshold_whenSent_thenBodyIsGzipped() throws Exception {
+        api.setCompressionThreshold(100);
+        SendGridMail mail = createMail();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            content.append("<p>Email content body</p>");
+        mail.setHtmlContent(content.toString());
+
+        SendGridResponse response = api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(mail)).call();
+
+        LocalHttpsServer.RecordedRequest request = server.getRequests().get(0);
+        byte[] uncompressed = gunzip(request.body);
+        assertTrue(response.isSuccessful());
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        assertEquals(SendGridMailBody.create(mail).getContentLength(), uncompressed.length);
+        assertTrue(request.body.length * 5 < uncompressed.length);
+    }
+
+    @Test
+    public void givenBodyBelowThreshold_whenSent_thenBodyIsNotCompressed() throws Exception {
+        api.setCompressionThreshold(100000);
+
+        api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+
+        LocalHttpsServer.RecordedRequest request = server.getRequests().get(0);
+        assertNull(request.getHeader("Content-Encoding"));
+        assertEquals(String.valueOf(request.body.length), request.getHeader("Content-Length"));
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void givenStalledResponse_whenReadTimeoutPasses_thenCallFails() throws Exception {
+        api.setTimeouts(10000, 100);
+        server.enqueue(new LocalHttpsServer.MockResponse(202, "").delay(2000));
+
+        api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail())).call();
+    }
+
+    @Test
+    public void givenDeadline_whenRetriesWouldOutlastIt_thenCallFailsAtDeadline() throws Exception {
+        api.setRetryPolicy(RetryPolicy.builder().build(), new FakeClock(0));
+        server.enqueue(new LocalHttpsServer.MockResponse(503, "").delay(2000));
+
+        try {
+            api.call(MAIL_URL, CREDENTIALS, SendGridMailBody.create(createMail()), null,
+                    new CallHandle(TimeUnit.MILLISECONDS.toNanos(200))).call();
+            fail();
+        } catch (InterruptedIOException e) {
+            assertEquals("Deadline exceeded", e.getMessage());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void givenCancelledCall_whenUploading_thenUploadStopsBetweenBuffers() throws Exception {
+        final CallHandle handle = new CallHandle(0);
+        final int[] buffersWritten = new int[1];
+        RequestBody body = new RequestBody() {
+            @Override
+            long getContentLength() {
+                return 10 * 1024;
+            }
+
+            @Override
+            void writeTo(OutputStream outputStream) throws IOException {
+                byte[] buffer = new byte[1024];
+                for (int i = 0; i < 10; i++) {
+                    outputStream.write(buffer);
+                    buffersWritten[0]++;
+                    handle.cancel();
+                }
+            }
+        };
+
+        try {
+            api.call(MAIL_URL, CREDENTIALS, body, null, handle).call();
+            fail();
+        } catch (InterruptedIOException e) {
+            assertEquals("Canceled", e.getMessage());
+        }
+        assertEquals(1, buffersWritten[0]);
+        assertEquals(0, server.getRequestCount());
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void givenMailOverSizeLimit_whenCalling_thenFailsWithoutSending() throws Exception {
+        File file = File.createTempFile("attachment", ".bin");
+        try {
+            RandomAccessFile sparse = new RandomAccessFile(file, "rw");
+            sparse.setLength(SendGridMail.MAX_SIZE * 3 / 4 + 1);
+            sparse.close();
+            SendGridMail mail = createMail();
+            mail.addAttachment(file);
+            SendGridMailBody body = SendGridMailBody.create(mail);
+            ByteArrayOutputStream small = new ByteArrayOutputStream();
+            SendGridMailBody.create(createMail()).writeTo(small);
+
+            assertTrue(mail.estimateSize() > SendGridMail.MAX_SIZE);
+            assertEquals(body.getContentLength(), mail.estimateSize());
+            assertEquals(small.size(), createMail().estimateSize());
+            try {
+                api.call(MAIL_URL, CREDENTIALS, body).call();
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("exceeds the limit"));
+            }
+            assertEquals(0, server.getRequestCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1)
+            outputStream.write(buffer, 0, read);
+        return outputStream.toByteArray();
+    }
+
+    private SendGridMail createMail() {
+        SendGridMail mail = new SendGridMail();
+        mail.addRecipient("john.doe@example.com", "John Doe");
+        mail.setFrom("kate.green@example.com", "Kate Green");
+        mail.setSubject("Mail subject");
+        mail.setContent("Email content body");
+        return mail;
+    }
+
+}
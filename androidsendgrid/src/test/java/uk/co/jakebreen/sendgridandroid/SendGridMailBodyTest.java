@@ -1,17 +1,28 @@
 package uk.co.jakebreen.sendgridandroid;
 
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -37,7 +48,7 @@ public class SendGridMailBodyTest {
         map.put("will.smith@example.com", "Will Smith");
         when(mail.getRecipients()).thenReturn(map);
 
-        assertEquals(parseJsonFile("/json/emails_to"), getToParams(mail).toString());
+        assertEquals(parseJsonFile("/json/emails_to"), object(writer -> writeToParams(writer, mail)));
     }
 
     @Test
@@ -48,7 +59,7 @@ public class SendGridMailBodyTest {
         map.put("will.smith@example.com", "Will Smith");
         when(mail.getRecipientCarbonCopies()).thenReturn(map);
 
-        assertEquals(parseJsonFile("/json/emails_cc"), getCcParams(mail).toString());
+        assertEquals(parseJsonFile("/json/emails_cc"), object(writer -> writeCcParams(writer, mail)));
     }
 
     @Test
@@ -59,44 +70,44 @@ public class SendGridMailBodyTest {
         map.put("will.smith@example.com", "Will Smith");
         when(mail.getRecipientBlindCarbonCopies()).thenReturn(map);
 
-        assertEquals(parseJsonFile("/json/emails_bcc"), getBccParams(mail).toString());
+        assertEquals(parseJsonFile("/json/emails_bcc"), object(writer -> writeBccParams(writer, mail)));
     }
 
     @Test
-    public void givenToEmail_whenCreatingMailBodyAndNameIsEmpty_thenReturnJsonBodyWithoutNameValue() throws JSONException {
+    public void givenToEmail_whenCreatingMailBodyAndNameIsEmpty_thenReturnJsonBodyWithoutNameValue() throws JSONException, IOException {
         String expectedValue = "{\"to\":[{\"email\":\"john.doe@example.com\"}]}";
 
         Map<String, String> map = new HashMap<>();
         map.put("john.doe@example.com", EMPTY);
         when(mail.getRecipients()).thenReturn(map);
 
-        assertEquals(expectedValue, getToParams(mail).toString());
+        assertEquals(expectedValue, object(writer -> writeToParams(writer, mail)));
     }
 
     @Test
-    public void givenFromEmail_whenCreatingMailBody_thenReturnJsonBody() throws JSONException {
+    public void givenFromEmail_whenCreatingMailBody_thenReturnJsonBody() throws JSONException, IOException {
         String expectedValue = "{\"name\":\"John Doe\",\"email\":\"john.doe@example.com\"}";
 
         Map<String, String> map = new HashMap<>();
         map.put("john.doe@example.com", "John Doe");
         when(mail.getFrom()).thenReturn(map);
 
-        assertEquals(expectedValue, getFromParams(mail).toString());
+        assertEquals(expectedValue, object(writer -> writeFromParams(writer, mail)));
     }
 
     @Test
-    public void givenContent_whenCreatingMailBody_thenReturnJsonBody() throws JSONException {
+    public void givenContent_whenCreatingMailBody_thenReturnJsonBody() throws JSONException, IOException {
         String expectedValue = "[{\"type\":\"text/plain\",\"value\":\"" + CONTENT_BODY + "\"}]";
 
         Map<String, String> map = new HashMap<>();
         map.put(TYPE_PLAIN, CONTENT_BODY);
         when(mail.getContent()).thenReturn(map);
 
-        assertEquals(expectedValue, getContentParams(mail).toString());
+        assertEquals(expectedValue, array(writer -> writeContentParams(writer, mail)));
     }
 
     @Test
-    public void givenContentsWithPlainTypeThenHtmlType_whenCreatingMailBody_thenReturnJsonBodyInThatOrder() throws JSONException {
+    public void givenContentsWithPlainTypeThenHtmlType_whenCreatingMailBody_thenReturnJsonBodyInThatOrder() throws JSONException, IOException {
         String expectedValue = "[{\"type\":\"text/plain\",\"value\":\"" + CONTENT_BODY + "\"}," + "{\"type\":\"text/html\",\"value\":\"" + CONTENT_BODY  + "\"}]";
 
         Map<String, String> map = new HashMap<>();
@@ -104,11 +115,11 @@ public class SendGridMailBodyTest {
         map.put(TYPE_HTML, CONTENT_BODY);
         when(mail.getContent()).thenReturn(map);
 
-        assertEquals(expectedValue, getContentParams(mail).toString());
+        assertEquals(expectedValue, array(writer -> writeContentParams(writer, mail)));
     }
 
     @Test
-    public void givenContentsWithHtmlTypeThenPlainType_whenCreatingMailBody_thenReturnJsonBodyInCorrectOrder() throws JSONException {
+    public void givenContentsWithHtmlTypeThenPlainType_whenCreatingMailBody_thenReturnJsonBodyInCorrectOrder() throws JSONException, IOException {
         String expectedValue = "[{\"type\":\"text/plain\",\"value\":\"" + CONTENT_BODY + "\"}," + "{\"type\":\"text/html\",\"value\":\"" + CONTENT_BODY  + "\"}]";
 
         Map<String, String> map = new HashMap<>();
@@ -116,15 +127,19 @@ public class SendGridMailBodyTest {
         map.put(TYPE_PLAIN, CONTENT_BODY);
         when(mail.getContent()).thenReturn(map);
 
-        assertEquals(expectedValue, getContentParams(mail).toString());
+        assertEquals(expectedValue, array(writer -> writeContentParams(writer, mail)));
     }
 
     @Test
-    public void givenAttachment_whenCreatingMailBody_thenReturnJsonBody() throws JSONException {
+    public void givenAttachment_whenCreatingMailBody_thenReturnJsonBody() throws JSONException, IOException {
         String expectedValue = "[{\"filename\":\"TestFile.txt\",\"content\":\"dgFAtXCDASfghjgj4\"}]";
 
         SendGridMail.Attachment attachment = mock(SendGridMail.Attachment.class);
-        when(attachment.getContent()).thenReturn("dgFAtXCDASfghjgj4");
+        when(attachment.getEncodedLength()).thenReturn(17L);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write("dgFAtXCDASfghjgj4".getBytes("UTF-8"));
+            return null;
+        }).when(attachment).writeBase64(any(OutputStream.class));
         when(attachment.getFilename()).thenReturn("TestFile.txt");
 
         List<SendGridMail.Attachment> map = new ArrayList<>();
@@ -132,11 +147,11 @@ public class SendGridMailBodyTest {
 
         when(mail.getFileAttachments()).thenReturn(map);
 
-        assertEquals(expectedValue, getAttachments(mail).toString());
+        assertEquals(expectedValue, array(writer -> writeAttachments(writer, mail)));
     }
 
     @Test
-    public void givenMultipleMailParameters_whenCreatingMailBody_thenReturnJsonBody() throws IOException {
+    public void givenMultipleMailParameters_whenCreatingMailBody_thenReturnJsonBody() throws JSONException, IOException {
         Map<String, String> toMap = new HashMap<>();
         toMap.put("john.doe@example.com", "John Doe");
         toMap.put("kate.green@example.com", "Kate Green");
@@ -160,7 +175,7 @@ public class SendGridMailBodyTest {
         replyMap.put("no-reply@email.com", "No reply");
         when(mail.getReplyTo()).thenReturn(replyMap);
 
-        assertEquals(parseJsonFile("/json/email"), create(mail).getBody().toString());
+        assertEquals(parseJsonFile("/json/email"), body(create(mail)));
     }
 
     @Test
@@ -176,7 +191,172 @@ public class SendGridMailBodyTest {
         clickTracking.put("enable_text", true);
         when(mail.getClickTracking()).thenReturn(clickTracking);
 
-        assertEquals(parseJsonFile("/json/emails_tracking_disabled"), create(mail).getBody().toString());
+        assertEquals(parseJsonFile("/json/emails_tracking_disabled"), body(create(mail)));
+    }
+
+    @Test
+    public void givenMailBody_whenMeasuringContentLength_thenMatchesWrittenBytes() throws JSONException, IOException {
+        Map<String, String> toMap = new HashMap<>();
+        toMap.put("john.doe@example.com", "John Doe");
+        when(mail.getRecipients()).thenReturn(toMap);
+
+        Map<String, String> contentMap = new HashMap<>();
+        contentMap.put(TYPE_PLAIN, "Caf\u00e9 \"quoted\" \ud83d\ude00\n\u0001");
+        contentMap.put(TYPE_HTML, "<p>" + CONTENT_BODY + "</p>");
+        when(mail.getContent()).thenReturn(contentMap);
+        when(mail.getSubject()).thenReturn("Mail subject");
+
+        SendGridMailBody body = create(mail);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        body.writeTo(outputStream);
+
+        assertEquals(outputStream.size(), body.getContentLength());
+    }
+
+    @Test
+    public void givenContent_whenWritingMailBodyTwice_thenContentIsNotConsumed() throws JSONException, IOException {
+        Map<String, String> contentMap = new HashMap<>();
+        contentMap.put(TYPE_PLAIN, CONTENT_BODY);
+        contentMap.put(TYPE_HTML, CONTENT_BODY);
+        when(mail.getContent()).thenReturn(contentMap);
+
+        SendGridMailBody body = create(mail);
+
+        assertEquals(body(body), body(body));
+        assertEquals(2, contentMap.size());
+    }
+
+    @Test
+    public void givenPrototype_whenCreatingMailBody_thenMatchesBodyOfWholeMail() throws JSONException, IOException {
+        SendGridMail template = new SendGridMail();
+        template.setFrom("john.doe@example.com", "John Doe");
+        template.setSubject("Mail subject");
+        template.setContent(CONTENT_BODY);
+        template.setHtmlContent("<p>" + CONTENT_BODY + "</p>");
+        template.setClickTracking("enable", true);
+        SendGridMailPrototype prototype = SendGridMailPrototype.from(template);
+        template.addRecipient("kate.green@example.com", "Kate Green");
+        template.addRecipientCarbonCopy("will.smith@example.com", "Will Smith");
+
+        SendGridMail recipients = new SendGridMail();
+        recipients.addRecipient("kate.green@example.com", "Kate Green");
+        recipients.addRecipientCarbonCopy("will.smith@example.com", "Will Smith");
+        RequestBody body = prototype.createBody(recipients, null);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        body.writeTo(outputStream);
+
+        assertEquals(body(create(template)), body(body));
+        assertEquals(outputStream.size(), body.getContentLength());
+    }
+
+    @Test
+    public void givenPrototype_whenMailChangesAfterwards_thenPrototypeIsUnchanged() throws JSONException, IOException {
+        SendGridMail template = new SendGridMail();
+        template.setSubject("Mail subject");
+        SendGridMailPrototype prototype = SendGridMailPrototype.from(template);
+        template.setSubject("Changed subject");
+
+        String body = body(prototype.createBody(new SendGridMail(), null));
+
+        assertEquals("Mail subject", new JSONObject(body).getString("subject"));
+    }
+
+    @Test
+    public void givenBuiltMail_whenCreatingMailBody_thenMatchesBodyOfMutableMailAndIsSerializedOnce() throws JSONException, IOException {
+        SendGridMail built = SendGridMail.builder()
+                .addRecipient("kate.green@example.com", "Kate Green")
+                .addRecipientCarbonCopy("will.smith@example.com", "Will Smith")
+                .setFrom("john.doe@example.com", "John Doe")
+                .setReplyTo("no-reply@email.com", "No reply")
+                .setSubject("Mail subject")
+                .setContent(CONTENT_BODY)
+                .setHtmlContent("<p>" + CONTENT_BODY + "</p>")
+                .build();
+        SendGridMail mutable = new SendGridMail();
+        mutable.addRecipient("kate.green@example.com", "Kate Green");
+        mutable.addRecipientCarbonCopy("will.smith@example.com", "Will Smith");
+        mutable.setFrom("john.doe@example.com", "John Doe");
+        mutable.setReplyTo("no-reply@email.com", "No reply");
+        mutable.setSubject("Mail subject");
+        mutable.setContent(CONTENT_BODY);
+        mutable.setHtmlContent("<p>" + CONTENT_BODY + "</p>");
+
+        SendGridMailBody body = create(built);
+        byte[] fields = built.getEncodedFields();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        body.writeTo(outputStream);
+
+        assertEquals(body(create(mutable)), body(body));
+        assertEquals(outputStream.size(), body.getContentLength());
+        assertSame(fields, built.getEncodedFields());
+    }
+
+    @Test
+    public void givenReplyTo_whenCreatingMailBody_thenSenderIsUnchanged() throws JSONException, IOException {
+        SendGridMail mail = SendGridMail.builder()
+                .setFrom("john.doe@example.com", "John Doe")
+                .setReplyTo("no-reply@email.com", "No reply")
+                .build();
+
+        JSONObject body = new JSONObject(body(create(mail)));
+
+        assertEquals("john.doe@example.com", body.getJSONObject("from").getString("email"));
+        assertEquals("no-reply@email.com", body.getJSONObject("reply_to").getString("email"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void givenBuiltMail_whenChangingIt_thenThrows() {
+        SendGridMail.builder().build().setSubject("Changed subject");
+    }
+
+    @Test
+    public void givenBuiltMail_whenScheduled_thenCopyHoldsScheduleAndMailIsUnchanged() throws JSONException, IOException {
+        SendGridMail mail = SendGridMail.builder()
+                .setSubject("Mail subject")
+                .build();
+
+        SendGridMail scheduled = mail.withSchedule(1600000000, "YOUR_BATCH_ID");
+
+        JSONObject body = new JSONObject(body(create(scheduled)));
+        assertEquals(1600000000, body.getInt("send_at"));
+        assertEquals("YOUR_BATCH_ID", body.getString("batch_id"));
+        assertEquals("Mail subject", body.getString("subject"));
+        assertFalse(new JSONObject(body(create(mail))).has("send_at"));
+    }
+
+    @Test
+    public void givenSendGridMail_whenInspectingItsFields_thenTheyAreFinalOrVolatile() {
+        for (Field field : SendGridMail.class.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (!Modifier.isStatic(modifiers))
+                assertTrue(field.getName(), Modifier.isFinal(modifiers) || Modifier.isVolatile(modifiers));
+        }
+    }
+
+    private interface BodyPart {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    private String write(BodyPart part) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(outputStream);
+        part.write(writer);
+        writer.flush();
+        return outputStream.toString("UTF-8");
+    }
+
+    private String object(BodyPart part) throws IOException, JSONException {
+        return new JSONObject(write(part)).toString();
+    }
+
+    private String array(BodyPart part) throws IOException, JSONException {
+        return new JSONArray(write(part)).toString();
+    }
+
+    private String body(RequestBody body) throws IOException, JSONException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        body.writeTo(outputStream);
+        return new JSONObject(outputStream.toString("UTF-8")).toString();
     }
 
     private String parseJsonFile(String file) throws IOException {
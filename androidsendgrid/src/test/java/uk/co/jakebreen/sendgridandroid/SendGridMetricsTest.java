@@ -0,0 +1,150 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SendGridMetricsTest {
+
+    private static final String API_KEY = "api_key";
+    private static final int SENDS = 3;
+
+    private LocalHttpsServer server;
+    private SendGridMetrics metrics;
+    private SendGrid sendGrid;
+
+    @Before
+    public void setup() throws Exception {
+        server = LocalHttpsServer.start();
+        metrics = new SendGridMetrics();
+        sendGrid = SendGrid.builder(API_KEY)
+                .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                .setEventListener(metrics)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void givenSequentialSends_whenRecordingMetrics_thenFirstConnectionIsNewAndTheRestReused() throws Exception {
+        for (int i = 0; i < SENDS; i++)
+            assertTrue(sendGrid.send(createMail()).call().isSuccessful());
+
+        long uploaded = 0;
+        for (LocalHttpsServer.RecordedRequest request : server.getRequests())
+            uploaded += request.body.length;
+        assertEquals(1, metrics.getNewConnectionCount());
+        assertEquals(SENDS - 1, metrics.getReusedConnectionCount());
+        assertEquals(uploaded, metrics.getBytesUploaded());
+        assertEquals(SENDS, metrics.getResponseCount(2));
+        assertEquals(SENDS, metrics.getCallDuration().getCount());
+        assertEquals(SENDS, metrics.getSerialization().getCount());
+        assertEquals(SENDS, metrics.getTimeToFirstByte().getCount());
+        assertEquals(0, metrics.getFailedCallCount());
+    }
+
+    @Test
+    public void givenNewConnection_whenHandshakeCompletes_thenHandshakeIsRecorded() throws Exception {
+        sendGrid.send(createMail()).call();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getTlsHandshake().getCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, metrics.getTlsHandshake().getCount());
+    }
+
+    @Test
+    public void givenErrorResponse_whenRecordingMetrics_thenCallIsCountedAsFailed() throws Exception {
+        server.enqueue(new LocalHttpsServer.MockResponse(400, "{\"errors\":[{\"message\":\"Bad request\"}]}"));
+
+        sendGrid.send(createMail()).call();
+
+        assertEquals(1, metrics.getFailedCallCount());
+        assertEquals(1, metrics.getResponseCount(4));
+    }
+
+    @Test
+    public void givenEvents_whenListening_thenCallbacksShareTheCallIdInOrder() throws Exception {
+        final List<String> events = new ArrayList<>();
+        SendGrid listened = SendGrid.builder(API_KEY)
+                .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                .setEventListener(new EventListener() {
+                    @Override
+                    public void callStart(long callId) {
+                        events.add("callStart " + callId);
+                    }
+
+                    @Override
+                    public void bodySerialized(long callId, long contentLength, long durationNanos) {
+                        events.add("bodySerialized " + callId);
+                    }
+
+                    @Override
+                    public void connectionAcquired(long callId, boolean reused, long durationNanos) {
+                        events.add("connectionAcquired " + callId);
+                    }
+
+                    @Override
+                    public void requestBodyEnd(long callId, long bytes, long durationNanos) {
+                        events.add("requestBodyEnd " + callId);
+                    }
+
+                    @Override
+                    public void responseHeadersEnd(long callId, int code, long timeToFirstByteNanos) {
+                        events.add("responseHeadersEnd " + callId + " " + code);
+                    }
+
+                    @Override
+                    public void callEnd(long callId, SendGridResponse response, long durationNanos) {
+                        events.add("callEnd " + callId);
+                    }
+                })
+                .build();
+
+        listened.send(createMail()).call();
+
+        String id = events.get(0).substring("callStart ".length());
+        List<String> expected = new ArrayList<>();
+        expected.add("callStart " + id);
+        expected.add("bodySerialized " + id);
+        expected.add("connectionAcquired " + id);
+        expected.add("requestBodyEnd " + id);
+        expected.add("responseHeadersEnd " + id + " 202");
+        expected.add("callEnd " + id);
+        assertEquals(expected, events);
+    }
+
+    @Test
+    public void givenRecordedDurations_whenReadingPercentiles_thenValuesFallInTheirBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++)
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax(TimeUnit.MILLISECONDS));
+        assertEquals(50, histogram.getMean(TimeUnit.MILLISECONDS));
+        long median = histogram.getPercentile(50, TimeUnit.MILLISECONDS);
+        assertTrue(median >= 50 && median <= 57);
+        assertEquals(100, histogram.getPercentile(100, TimeUnit.MILLISECONDS));
+    }
+
+    private SendGridMail createMail() {
+        SendGridMail mail = new SendGridMail();
+        mail.addRecipient("john.doe@example.com", "John Doe");
+        mail.setFrom("kate.green@example.com", "Kate Green");
+        mail.setSubject("Mail subject");
+        mail.setContent("Email content body");
+        return mail;
+    }
+
+}
@@ -0,0 +1,153 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SendGridOutboxTest {
+
+    private static final String API_KEY = "api_key";
+    private static final int MAILS = 25;
+
+    private LocalHttpsServer server;
+    private SendGrid sendGrid;
+    private File directory;
+
+    @Before
+    public void setup() throws Exception {
+        server = LocalHttpsServer.start();
+        sendGrid = SendGrid.builder(API_KEY)
+                .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                .build();
+        directory = File.createTempFile("outbox", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void givenEnqueuedMails_whenOutboxIsReopened_thenMailsAreStillPending() throws Exception {
+        SendGridOutbox outbox = sendGrid.createOutbox(directory);
+        outbox.enqueueAll(createMails());
+        outbox.close();
+
+        SendGridOutbox reopened = sendGrid.createOutbox(directory);
+
+        assertEquals(MAILS, reopened.getPendingCount());
+        reopened.close();
+    }
+
+    @Test
+    public void givenTornRecordAtEndOfLog_whenOutboxIsReopened_thenOnlyWholeRecordsRemain() throws Exception {
+        SendGridOutbox outbox = sendGrid.createOutbox(directory);
+        outbox.enqueueAll(createMails());
+        outbox.close();
+        File log = new File(directory, "outbox.log");
+        RandomAccessFile file = new RandomAccessFile(log, "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+
+        SendGridOutbox reopened = sendGrid.createOutbox(directory);
+        reopened.enqueue(createMail("late@example.com"));
+        reopened.close();
+
+        SendGridOutbox recovered = sendGrid.createOutbox(directory);
+        assertEquals(MAILS, recovered.getPendingCount());
+        recovered.close();
+    }
+
+    @Test
+    public void givenPendingMails_whenDraining_thenEveryMailIsSentOnceAndRemoved() throws Exception {
+        SendGridOutbox outbox = sendGrid.createOutbox(directory);
+        outbox.enqueueAll(createMails());
+        final CountDownLatch sent = new CountDownLatch(MAILS);
+        outbox.setListener((id, response) -> sent.countDown());
+
+        outbox.start();
+
+        assertTrue(sent.await(30, TimeUnit.SECONDS));
+        assertEquals(0, outbox.getPendingCount());
+        assertEquals(MAILS, server.getRequestCount());
+        assertNull(outbox.getDrainError());
+        outbox.close();
+
+        SendGridOutbox reopened = sendGrid.createOutbox(directory);
+        assertEquals(0, reopened.getPendingCount());
+        reopened.close();
+    }
+
+    @Test
+    public void givenStartedOutbox_whenMailsAreEnqueued_thenEachIsSentOnFirstAttempt() throws Exception {
+        SendGridOutbox outbox = sendGrid.createOutbox(directory);
+        final CountDownLatch sent = new CountDownLatch(2 * MAILS);
+        final List<SendGridResponse> responses = Collections.synchronizedList(new ArrayList<>());
+        outbox.setListener((id, response) -> {
+            responses.add(response);
+            sent.countDown();
+        });
+
+        outbox.start();
+        for (SendGridMail mail : createMails())
+            outbox.enqueue(mail);
+        outbox.enqueueAll(createMails());
+
+        assertTrue(sent.await(10, TimeUnit.SECONDS));
+        for (SendGridResponse response : responses)
+            assertTrue(response.isSuccessful());
+        assertEquals(2 * MAILS, server.getRequestCount());
+        outbox.close();
+    }
+
+    @Test
+    public void givenTransientError_whenDraining_thenMailStaysPending() throws Exception {
+        server.enqueue(new LocalHttpsServer.MockResponse(503, ""));
+        SendGridOutbox outbox = sendGrid.createOutbox(directory);
+        outbox.enqueue(createMail("john.doe@example.com"));
+
+        outbox.start();
+        while (server.getRequestCount() == 0)
+            Thread.sleep(10);
+        outbox.close();
+
+        SendGridOutbox reopened = sendGrid.createOutbox(directory);
+        assertEquals(1, reopened.getPendingCount());
+        reopened.close();
+    }
+
+    private List<SendGridMail> createMails() {
+        List<SendGridMail> mails = new ArrayList<>();
+        for (int i = 0; i < MAILS; i++)
+            mails.add(createMail("recipient" + i + "@example.com"));
+        return mails;
+    }
+
+    private SendGridMail createMail(String recipient) {
+        SendGridMail mail = new SendGridMail();
+        mail.addRecipient(recipient, null);
+        mail.setFrom("john.doe@example.com", "John Doe");
+        mail.setSubject("Mail subject");
+        mail.setContent("Email content body");
+        return mail;
+    }
+
+}
@@ -0,0 +1,181 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SendGridSchedulerTest {
+
+    private static final String API_KEY = "scheduler_api_key";
+    private static final long NOW = 1600000000000L;
+
+    private LocalHttpsServer server;
+    private FakeClock clock;
+    private SendGrid sendGrid;
+
+    @Before
+    public void setup() throws Exception {
+        server = LocalHttpsServer.start();
+        clock = new FakeClock(NOW);
+        sendGrid = SendGrid.builder(API_KEY)
+                .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                .setClock(clock)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void givenMailsDueInTheSameTick_whenTheirTimeComes_thenEachIsSentOnce() throws Exception {
+        SendGridScheduler scheduler = sendGrid.createScheduler(1, TimeUnit.SECONDS);
+        List<SendGridFuture> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            futures.add(scheduler.schedule(createMail("recipient" + i + "@example.com"), 60, TimeUnit.SECONDS));
+
+        clock.advance(TimeUnit.SECONDS.toMillis(59));
+        scheduler.tick();
+        assertEquals(3, scheduler.size());
+        assertEquals(0, server.getRequestCount());
+
+        clock.advance(TimeUnit.SECONDS.toMillis(1));
+        scheduler.tick();
+        for (SendGridFuture future : futures)
+            assertTrue(future.get(10, TimeUnit.SECONDS).isSuccessful());
+        assertEquals(0, scheduler.size());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void givenTimerFiringBeforeWallClockDeadline_whenClockCatchesUp_thenMailIsStillSent() throws Exception {
+        SendGridScheduler scheduler = sendGrid.createScheduler(100, TimeUnit.MILLISECONDS);
+        SendGridFuture future = scheduler.schedule(createMail("john.doe@example.com"), 200, TimeUnit.MILLISECONDS);
+
+        // The timer fires while the wall clock has not moved.
+        Thread.sleep(500);
+        assertEquals(1, scheduler.size());
+        assertEquals(0, server.getRequestCount());
+
+        clock.advance(200);
+        assertTrue(future.get(10, TimeUnit.SECONDS).isSuccessful());
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void givenCancelledMail_whenItsTimeComes_thenItIsNotSent() throws Exception {
+        SendGridScheduler scheduler = sendGrid.createScheduler(1, TimeUnit.SECONDS);
+        SendGridFuture kept = scheduler.schedule(createMail("kept@example.com"), 1, TimeUnit.HOURS);
+        SendGridFuture cancelled = scheduler.schedule(createMail("cancelled@example.com"), 1, TimeUnit.HOURS);
+
+        assertTrue(cancelled.cancel(false));
+        assertTrue(cancelled.isCancelled());
+        assertEquals(1, scheduler.size());
+
+        clock.advance(TimeUnit.HOURS.toMillis(1));
+        scheduler.tick();
+        assertTrue(kept.get(10, TimeUnit.SECONDS).isSuccessful());
+        assertEquals(1, server.getRequestCount());
+        assertTrue(body(server.getRequests().get(0)).contains("kept@example.com"));
+    }
+
+    @Test
+    public void givenHandOffHorizon_whenMailIsDueWithinIt_thenItIsSentWithSendAtAndBatchId() throws Exception {
+        server.enqueue(new LocalHttpsServer.MockResponse(201, "{\"batch_id\":\"YOUR_BATCH_ID\"}"));
+        SendGridScheduler scheduler = sendGrid.createScheduler(1, TimeUnit.SECONDS, 1, TimeUnit.HOURS);
+        SendGridFuture future = scheduler.schedule(createMail("john.doe@example.com"), 2, TimeUnit.HOURS);
+
+        clock.advance(TimeUnit.HOURS.toMillis(1));
+        scheduler.tick();
+        awaitHandOff(scheduler, 2);
+
+        assertTrue(server.getRequests().get(0).requestLine.contains("/v3/mail/batch"));
+        String mail = body(server.getRequests().get(1));
+        assertTrue(mail.contains("\"send_at\":" + (NOW / 1000 + TimeUnit.HOURS.toSeconds(2))));
+        assertTrue(mail.contains("\"batch_id\":\"YOUR_BATCH_ID\""));
+        assertFalse(future.isDone());
+
+        clock.advance(TimeUnit.HOURS.toMillis(1));
+        scheduler.tick();
+        assertEquals(202, future.get(10, TimeUnit.SECONDS).getCode());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void givenHandedOffMail_whenCancelled_thenItsBatchIsCancelledWithSendGrid() throws Exception {
+        server.enqueue(new LocalHttpsServer.MockResponse(201, "{\"batch_id\":\"YOUR_BATCH_ID\"}"));
+        SendGridScheduler scheduler = sendGrid.createScheduler(1, TimeUnit.SECONDS, 1, TimeUnit.HOURS);
+        SendGridFuture future = scheduler.schedule(createMail("john.doe@example.com"), 30, TimeUnit.MINUTES);
+        awaitHandOff(scheduler, 2);
+
+        assertTrue(future.cancel(false));
+        while (server.getRequestCount() < 3)
+            Thread.sleep(10);
+
+        LocalHttpsServer.RecordedRequest cancel = server.getRequests().get(2);
+        assertTrue(cancel.requestLine.contains("/v3/user/scheduled_sends"));
+        assertEquals("{\"batch_id\":\"YOUR_BATCH_ID\",\"status\":\"cancel\"}", body(cancel));
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void givenMailCancelledWhileBatchIdIsCreated_whenHandingOff_thenItIsNotSent() throws Exception {
+        server.enqueue(new LocalHttpsServer.MockResponse(201, "{\"batch_id\":\"YOUR_BATCH_ID\"}").delay(500));
+        SendGridScheduler scheduler = sendGrid.createScheduler(1, TimeUnit.SECONDS, 1, TimeUnit.HOURS);
+        SendGridFuture future = scheduler.schedule(createMail("john.doe@example.com"), 30, TimeUnit.MINUTES);
+        Thread.sleep(200);
+
+        assertTrue(future.cancel(false));
+        Thread.sleep(1000);
+
+        for (LocalHttpsServer.RecordedRequest request : server.getRequests())
+            assertFalse(request.requestLine.contains("/v3/mail/send"));
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void givenNoBatchId_whenHandingOff_thenMailIsSentFromTheDevice() throws Exception {
+        server.enqueue(new LocalHttpsServer.MockResponse(500, ""));
+        SendGridScheduler scheduler = sendGrid.createScheduler(1, TimeUnit.SECONDS, 1, TimeUnit.HOURS);
+        SendGridFuture future = scheduler.schedule(createMail("john.doe@example.com"), 30, TimeUnit.MINUTES);
+        awaitHandOff(scheduler, 1);
+
+        clock.advance(TimeUnit.MINUTES.toMillis(30));
+        scheduler.tick();
+        assertTrue(future.get(10, TimeUnit.SECONDS).isSuccessful());
+        String mail = body(server.getRequests().get(1));
+        assertFalse(mail.contains("send_at"));
+        assertFalse(mail.contains("batch_id"));
+    }
+
+    /**
+     * Waits for the hand-off requests to be made and the mail to be back in the wheel.
+     */
+    private void awaitHandOff(SendGridScheduler scheduler, int requests) throws InterruptedException {
+        while (server.getRequestCount() < requests || scheduler.size() == 0)
+            Thread.sleep(10);
+    }
+
+    private static String body(LocalHttpsServer.RecordedRequest request) throws Exception {
+        return new String(request.body, "UTF-8");
+    }
+
+    private SendGridMail createMail(String recipient) {
+        SendGridMail mail = new SendGridMail();
+        mail.addRecipient(recipient, null);
+        mail.setFrom("john.doe@example.com", "John Doe");
+        mail.setSubject("Mail subject");
+        mail.setContent("Email content body");
+        return mail;
+    }
+
+}
@@ -1,14 +1,27 @@
 package uk.co.jakebreen.sendgridandroid;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.when;
@@ -18,8 +31,13 @@ import static uk.co.jakebreen.sendgridandroid.ErrorParser.parseError;
 public class SendGridTest {
 
     private static final int RESPONSE_202 = 202;
+    private static final int RESPONSE_400 = 400;
     private static final int RESPONSE_401 = 401;
     private static final String API_KEY = "api_key";
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+    private static final int BATCH_SIZE = 40;
+    private static final int COALESCED_MAILS = 5;
+    private static final int SPLIT_RECIPIENTS = 2500;
 
     @Mock SendGridMail mail;
     @Mock SendGridCall api;
@@ -39,7 +57,7 @@ public class SendGridTest {
         when(response.getCode()).thenReturn(RESPONSE_202);
         when(response.isSuccessful()).thenReturn(true);
         when(callable.call()).thenReturn(response);
-        when(api.call(anyString(), anyString(), any(SendGridMailBody.class))).thenReturn(callable);
+        when(api.call(anyString(), anyString(), any(SendGridMailBody.class), any())).thenReturn(callable);
 
         sendGrid.send(mail);
 
@@ -57,7 +75,7 @@ public class SendGridTest {
         when(response.isSuccessful()).thenReturn(false);
         when(response.getErrorMessage()).thenReturn("Does not contain a valid address.");
         when(callable.call()).thenReturn(response);
-        when(api.call(anyString(), anyString(), any(SendGridMailBody.class))).thenReturn(callable);
+        when(api.call(anyString(), anyString(), any(SendGridMailBody.class), any())).thenReturn(callable);
 
         sendGrid.send(mail);
 
@@ -66,4 +84,385 @@ public class SendGridTest {
         assertEquals(callable.call().getErrorMessage(), parseError(exampleResponse));
     }
 
+    @Test
+    public void givenBatchOfMails_whenSendingAll_thenEveryMailGetsAResponseInOrder() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            SendGrid bulkSendGrid = SendGrid.builder(API_KEY)
+                    .setMaxConcurrentRequests(MAX_CONCURRENT_REQUESTS)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+            List<SendGridMail> mails = new ArrayList<>();
+            for (int i = 0; i < BATCH_SIZE; i++)
+                mails.add(createMail("recipient" + i + "@example.com"));
+
+            SendGridBatch batch = bulkSendGrid.sendAll(mails);
+            List<SendGridResponse> responses = batch.await();
+
+            assertTrue(batch.isDone());
+            assertEquals(BATCH_SIZE, responses.size());
+            assertEquals(BATCH_SIZE, batch.getSuccessCount());
+            assertEquals(0, batch.getFailureCount());
+            assertEquals(BATCH_SIZE, server.getRequestCount());
+            assertTrue(server.getHandshakeCount() <= MAX_CONCURRENT_REQUESTS);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenMailsDifferingOnlyInRecipient_whenCoalescing_thenOneRequestIsSentForAll() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            SendGrid coalescingSendGrid = SendGrid.builder(API_KEY)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+            SendGridCoalescer coalescer = coalescingSendGrid.createCoalescer(1, TimeUnit.MINUTES, COALESCED_MAILS);
+
+            List<Future<SendGridResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < COALESCED_MAILS; i++)
+                futures.add(coalescer.send(createMail("recipient" + i + "@example.com")));
+
+            for (Future<SendGridResponse> future : futures)
+                assertTrue(future.get(10, TimeUnit.SECONDS).isSuccessful());
+            assertEquals(1, server.getRequestCount());
+            JSONObject body = new JSONObject(new String(server.getRequests().get(0).body, "UTF-8"));
+            assertEquals(COALESCED_MAILS, body.getJSONArray("personalizations").length());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenMailsWithDifferentContent_whenCoalescingAndFlushing_thenOneRequestIsSentPerContent() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            SendGrid coalescingSendGrid = SendGrid.builder(API_KEY)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+            SendGridCoalescer coalescer = coalescingSendGrid.createCoalescer(1, TimeUnit.MINUTES, COALESCED_MAILS);
+            SendGridMail otherMail = createMail("kate.green@example.com");
+            otherMail.setContent("Other content body");
+
+            Future<SendGridResponse> first = coalescer.send(createMail("will.smith@example.com"));
+            Future<SendGridResponse> second = coalescer.send(otherMail);
+            coalescer.flush();
+
+            assertTrue(first.get(10, TimeUnit.SECONDS).isSuccessful());
+            assertTrue(second.get(10, TimeUnit.SECONDS).isSuccessful());
+            assertEquals(2, server.getRequestCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenManyAsyncSends_whenAwaitingFutures_thenEveryMailIsSentInParallel() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            SendGrid asyncSendGrid = SendGrid.builder(API_KEY)
+                    .setMaxConcurrentRequests(MAX_CONCURRENT_REQUESTS)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+
+            List<SendGridFuture> futures = new ArrayList<>();
+            for (int i = 0; i < BATCH_SIZE; i++)
+                futures.add(asyncSendGrid.sendAsync(createMail("recipient" + i + "@example.com")));
+
+            for (SendGridFuture future : futures)
+                assertTrue(future.get(10, TimeUnit.SECONDS).isSuccessful());
+            assertEquals(BATCH_SIZE, server.getRequestCount());
+            assertTrue(server.getHandshakeCount() <= MAX_CONCURRENT_REQUESTS);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenCallbackExecutor_whenSendingAsync_thenCallbackRunsOnExecutor() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+        try {
+            server.enqueue(new LocalHttpsServer.MockResponse(RESPONSE_400,
+                    "{\"errors\":[{\"message\":\"Does not contain a valid address.\"}]}"));
+            SendGrid asyncSendGrid = SendGrid.builder(API_KEY)
+                    .setCallbackExecutor(callbackExecutor)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+            final Thread callbackThread = callbackExecutor.submit(Thread::currentThread).get();
+            final List<SendGridResponse> responses = new ArrayList<>();
+            final CountDownLatch called = new CountDownLatch(1);
+
+            asyncSendGrid.sendAsync(createMail("will.smith@example.com"), response -> {
+                if (Thread.currentThread() == callbackThread)
+                    responses.add(response);
+                called.countDown();
+            });
+
+            assertTrue(called.await(10, TimeUnit.SECONDS));
+            assertEquals(1, responses.size());
+            assertEquals(RESPONSE_400, responses.get(0).getCode());
+            assertEquals("Does not contain a valid address.", responses.get(0).getErrorMessage());
+        } finally {
+            callbackExecutor.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenStalledResponse_whenDeadlinePasses_thenAsyncSendFails() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            server.enqueue(new LocalHttpsServer.MockResponse(RESPONSE_202, "").delay(5000));
+            SendGrid asyncSendGrid = SendGrid.builder(API_KEY)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+
+            SendGridResponse response = asyncSendGrid.sendAsync(createMail("will.smith@example.com"),
+                    200, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+
+            assertFalse(response.isSuccessful());
+            assertEquals(0, response.getCode());
+            assertEquals("Deadline exceeded", response.getErrorMessage());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenBusyWorker_whenDeadlinePassesWhileQueued_thenAsyncSendFailsWithoutSending() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            server.enqueue(new LocalHttpsServer.MockResponse(RESPONSE_202, "").delay(5000));
+            SendGrid asyncSendGrid = SendGrid.builder(API_KEY)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .setMaxConcurrentRequests(1)
+                    .build();
+            SendGridFuture stalled = asyncSendGrid.sendAsync(createMail("will.smith@example.com"));
+
+            SendGridResponse response = asyncSendGrid.sendAsync(createMail("kate.green@example.com"),
+                    200, TimeUnit.MILLISECONDS).get(2, TimeUnit.SECONDS);
+
+            assertFalse(response.isSuccessful());
+            assertEquals("Deadline exceeded", response.getErrorMessage());
+            assertEquals(1, server.getRequestCount());
+            stalled.cancel(true);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenStalledResponse_whenFutureIsCancelled_thenCallbackGetsFailure() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            server.enqueue(new LocalHttpsServer.MockResponse(RESPONSE_202, "").delay(5000));
+            SendGrid asyncSendGrid = SendGrid.builder(API_KEY)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+            final List<SendGridResponse> responses = new ArrayList<>();
+            SendGridFuture future = asyncSendGrid.sendAsync(createMail("will.smith@example.com"),
+                    responses::add);
+            while (server.getRequestCount() == 0)
+                Thread.sleep(10);
+
+            assertTrue(future.cancel(true));
+
+            assertTrue(future.isCancelled());
+            assertFalse(future.cancel(true));
+            assertEquals(1, responses.size());
+            assertEquals("Canceled", responses.get(0).getErrorMessage());
+            try {
+                future.get();
+                fail();
+            } catch (CancellationException expected) {
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenDeduplication_whenSameMailIsSentTwiceWithinWindow_thenOneRequestIsSent() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            FakeClock clock = new FakeClock(0);
+            SendGrid dedupingSendGrid = SendGrid.builder(API_KEY)
+                    .setDeduplication(1, TimeUnit.MINUTES)
+                    .setClock(clock)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+
+            assertTrue(dedupingSendGrid.send(createMail("will.smith@example.com")).call().isSuccessful());
+            assertTrue(dedupingSendGrid.send(createMail("will.smith@example.com")).call().isSuccessful());
+            assertEquals(1, server.getRequestCount());
+
+            dedupingSendGrid.send(createMail("jane.smith@example.com")).call();
+            assertEquals(2, server.getRequestCount());
+
+            clock.advance(TimeUnit.MINUTES.toMillis(1));
+            dedupingSendGrid.send(createMail("will.smith@example.com")).call();
+            assertEquals(3, server.getRequestCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenDeduplication_whenSendIsUnsuccessful_thenSameMailIsSentAgain() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            server.enqueue(new LocalHttpsServer.MockResponse(RESPONSE_400,
+                    "{\"errors\":[{\"message\":\"Does not contain a valid address.\"}]}"));
+            SendGrid dedupingSendGrid = SendGrid.builder(API_KEY)
+                    .setDeduplication(1, TimeUnit.MINUTES)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+
+            assertFalse(dedupingSendGrid.send(createMail("will.smith@example.com")).call().isSuccessful());
+            assertTrue(dedupingSendGrid.send(createMail("will.smith@example.com")).call().isSuccessful());
+            assertEquals(2, server.getRequestCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenDeduplication_whenSameMailIsSentWhileInFlight_thenBothShareOneRequest() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            server.enqueue(new LocalHttpsServer.MockResponse(RESPONSE_202, "").delay(500));
+            SendGrid dedupingSendGrid = SendGrid.builder(API_KEY)
+                    .setDeduplication(1, TimeUnit.MINUTES)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+
+            SendGridFuture first = dedupingSendGrid.sendAsync(createMail("will.smith@example.com"));
+            SendGridFuture second = dedupingSendGrid.sendAsync(createMail("will.smith@example.com"));
+
+            assertTrue(first.get(10, TimeUnit.SECONDS).isSuccessful());
+            assertTrue(second.get(10, TimeUnit.SECONDS).isSuccessful());
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenDeduplication_whenSendInFlightIsCancelled_thenJoinedSendIsStillSent() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            server.enqueue(new LocalHttpsServer.MockResponse(RESPONSE_202, "").delay(500));
+            SendGrid dedupingSendGrid = SendGrid.builder(API_KEY)
+                    .setDeduplication(1, TimeUnit.MINUTES)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+
+            SendGridFuture first = dedupingSendGrid.sendAsync(createMail("will.smith@example.com"));
+            SendGridFuture second = dedupingSendGrid.sendAsync(createMail("will.smith@example.com"));
+            Thread.sleep(100);
+            assertTrue(first.cancel(true));
+
+            assertTrue(second.get(10, TimeUnit.SECONDS).isSuccessful());
+            assertFalse(second.isCancelled());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenDeduplication_whenJoinedSendHasShorterTimeout_thenItFailsOnItsOwnDeadline() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            server.enqueue(new LocalHttpsServer.MockResponse(RESPONSE_202, "").delay(2000));
+            SendGrid dedupingSendGrid = SendGrid.builder(API_KEY)
+                    .setDeduplication(1, TimeUnit.MINUTES)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+
+            SendGridFuture first = dedupingSendGrid.sendAsync(createMail("will.smith@example.com"));
+            SendGridFuture second = dedupingSendGrid.sendAsync(createMail("will.smith@example.com"),
+                    100, TimeUnit.MILLISECONDS);
+
+            SendGridResponse response = second.get(1, TimeUnit.SECONDS);
+            assertFalse(response.isSuccessful());
+            assertEquals("Deadline exceeded", response.getErrorMessage());
+            assertFalse(first.isDone());
+            assertTrue(first.get(10, TimeUnit.SECONDS).isSuccessful());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenMailOverRecipientLimit_whenSendingSplit_thenEveryRecipientIsSentOnce() throws Exception {
+        LocalHttpsServer server = LocalHttpsServer.start();
+        try {
+            SendGrid splittingSendGrid = SendGrid.builder(API_KEY)
+                    .setApi(new SendGridCall(server.getUrl(), server.getClientSocketFactory()))
+                    .build();
+            SendGridMail.Builder builder = SendGridMail.builder()
+                    .setRecipientSplitting(true)
+                    .setFrom("john.doe@example.com", "John Doe")
+                    .setSubject("Mail subject")
+                    .setContent("Email content body");
+            for (int i = 0; i < SPLIT_RECIPIENTS; i++)
+                builder.addRecipient("recipient" + i + "@example.com", null);
+
+            SendGridBatch batch = splittingSendGrid.sendSplit(builder.build());
+            List<SendGridResponse> responses = batch.await();
+
+            assertEquals(3, responses.size());
+            assertEquals(3, batch.getSuccessCount());
+            Set<String> recipients = new HashSet<>();
+            for (LocalHttpsServer.RecordedRequest request : server.getRequests()) {
+                JSONObject body = new JSONObject(new String(request.body, "UTF-8"));
+                JSONArray to = body.getJSONArray("personalizations").getJSONObject(0).getJSONArray("to");
+                assertTrue(to.length() <= 1000);
+                assertEquals("Mail subject", body.getString("subject"));
+                for (int i = 0; i < to.length(); i++)
+                    recipients.add(to.getJSONObject(i).getString("email"));
+            }
+            assertEquals(SPLIT_RECIPIENTS, recipients.size());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void givenMailOverRecipientLimit_whenSendingUnsplit_thenItIsRejected() {
+        SendGrid unsplitSendGrid = SendGrid.create(API_KEY);
+        SendGridMail mail = new SendGridMail();
+        mail.setRecipientSplitting(true);
+        for (int i = 0; i < SPLIT_RECIPIENTS; i++)
+            mail.addRecipient("recipient" + i + "@example.com", null);
+        List<SendGridMail> mails = new ArrayList<>();
+        mails.add(mail);
+
+        try {
+            unsplitSendGrid.send(mail);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            unsplitSendGrid.sendAsync(mail);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            unsplitSendGrid.sendAll(mails);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private SendGridMail createMail(String recipient) {
+        SendGridMail mail = new SendGridMail();
+        mail.addRecipient(recipient, null);
+        mail.setFrom("john.doe@example.com", "John Doe");
+        mail.setSubject("Mail subject");
+        mail.setContent("Email content body");
+        return mail;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    @Test
+    public void givenTimeouts_whenAdvancing_thenOnlyDueOnesComeOutInOrder() {
+        TimingWheel<TimingWheel.Timeout> wheel = new TimingWheel<>(10, 0);
+        TimingWheel.Timeout late = timeout(25);
+        TimingWheel.Timeout early = timeout(5);
+        TimingWheel.Timeout later = timeout(1000);
+        wheel.add(late);
+        wheel.add(early);
+        wheel.add(later);
+
+        List<TimingWheel.Timeout> due = new ArrayList<>();
+        wheel.advance(30, due);
+
+        assertEquals(2, due.size());
+        assertTrue(due.get(0) == early);
+        assertTrue(due.get(1) == late);
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void givenFarDeadline_whenAdvancing_thenItComesOutOnItsTick() {
+        long deadline = TimeUnit.DAYS.toMillis(3) + 500;
+        TimingWheel<TimingWheel.Timeout> wheel = new TimingWheel<>(1000, 0);
+        TimingWheel.Timeout timeout = timeout(deadline);
+        wheel.add(timeout);
+
+        List<TimingWheel.Timeout> due = new ArrayList<>();
+        wheel.advance(deadline - 500, due);
+        assertTrue(due.isEmpty());
+        assertTrue(wheel.nextEventMillis() <= deadline + 500);
+
+        wheel.advance(deadline + 500, due);
+        assertEquals(1, due.size());
+        assertEquals(0, wheel.size());
+        assertEquals(Long.MAX_VALUE, wheel.nextEventMillis());
+    }
+
+    @Test
+    public void givenTimeoutOnUpperLevel_whenAskingForNextEvent_thenEmptySlotsAreSkipped() {
+        TimingWheel<TimingWheel.Timeout> wheel = new TimingWheel<>(10, 0);
+        wheel.add(timeout(3250));
+
+        assertEquals(3200, wheel.nextEventMillis());
+
+        List<TimingWheel.Timeout> due = new ArrayList<>();
+        wheel.advance(3200, due);
+        assertTrue(due.isEmpty());
+        assertEquals(3250, wheel.nextEventMillis());
+    }
+
+    @Test
+    public void givenRemovedTimeout_whenAdvancing_thenItDoesNotComeOut() {
+        TimingWheel<TimingWheel.Timeout> wheel = new TimingWheel<>(10, 0);
+        TimingWheel.Timeout kept = timeout(50);
+        TimingWheel.Timeout removed = timeout(50);
+        wheel.add(kept);
+        wheel.add(removed);
+
+        assertTrue(wheel.remove(removed));
+        assertFalse(wheel.remove(removed));
+
+        List<TimingWheel.Timeout> due = new ArrayList<>();
+        wheel.advance(50, due);
+        assertEquals(1, due.size());
+        assertTrue(due.get(0) == kept);
+    }
+
+    @Test
+    public void givenPastDeadline_whenAdding_thenItIsNotAdded() {
+        TimingWheel<TimingWheel.Timeout> wheel = new TimingWheel<>(10, 1000);
+
+        assertFalse(wheel.add(timeout(1000)));
+        assertFalse(wheel.add(timeout(10)));
+        assertTrue(wheel.add(timeout(1001)));
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void givenRandomDeadlines_whenAdvancingInRandomSteps_thenEachComesOutOnceOnTime() {
+        Random random = new Random(42);
+        long tick = 100;
+        TimingWheel<TimingWheel.Timeout> wheel = new TimingWheel<>(tick, 0);
+        for (int i = 0; i < 5000; i++) {
+            long range = random.nextBoolean() ? 10000 : TimeUnit.DAYS.toMillis(10);
+            wheel.add(timeout(1 + (long) (random.nextDouble() * range)));
+        }
+
+        int count = 0;
+        long previous = 0;
+        long now = 0;
+        while (wheel.size() > 0) {
+            now += 1 + (long) (random.nextDouble() * TimeUnit.HOURS.toMillis(1));
+            List<TimingWheel.Timeout> due = new ArrayList<>();
+            wheel.advance(now, due);
+            for (TimingWheel.Timeout timeout : due) {
+                long dueTick = (timeout.deadlineMillis + tick - 1) / tick;
+                assertTrue(dueTick <= now / tick);
+                assertTrue(dueTick > previous / tick);
+            }
+            count += due.size();
+            previous = now;
+        }
+        assertEquals(5000, count);
+    }
+
+    private static TimingWheel.Timeout timeout(long deadlineMillis) {
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout();
+        timeout.deadlineMillis = deadlineMillis;
+        return timeout;
+    }
+
+}
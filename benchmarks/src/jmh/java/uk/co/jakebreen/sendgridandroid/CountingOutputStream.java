@@ -0,0 +1,23 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import java.io.OutputStream;
+
+/**
+ * Discards everything written to it, only counting the bytes, so benchmarks measure
+ * producing output rather than storing it.
+ */
+final class CountingOutputStream extends OutputStream {
+
+    long count;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+
+}
@@ -0,0 +1,38 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading the errors out of a typical error response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ErrorParserBenchmark {
+
+    private static final String RESPONSE = "{\"errors\":[" +
+            "{\"message\":\"Does not contain a valid address.\",\"field\":\"personalizations.0.to.0.email\"," +
+            "\"help\":\"http://sendgrid.com/docs/API_Reference/Web_API_v3/Mail/errors.html#message.personalizations.to\"}," +
+            "{\"message\":\"The from object must be provided for every email send.\",\"field\":\"from\"," +
+            "\"help\":\"http://sendgrid.com/docs/API_Reference/Web_API_v3/Mail/errors.html#message.from\"}]," +
+            "\"id\":\"7f9d3b5e\"}";
+
+    @Benchmark
+    public String parseError() {
+        return ErrorParser.parseError(RESPONSE);
+    }
+
+    @Benchmark
+    public List<SendGridError> parseErrors() throws ErrorParser.MalformedJsonException {
+        return ErrorParser.parseErrors(RESPONSE);
+    }
+
+}
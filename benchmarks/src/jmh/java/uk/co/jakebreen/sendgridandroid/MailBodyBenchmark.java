@@ -0,0 +1,59 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of measuring and writing a mail body, by number of recipients and size of the
+ * HTML content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MailBodyBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    int recipients;
+
+    @Param({"1024", "65536"})
+    int contentLength;
+
+    private SendGridMail mail;
+
+    @Setup
+    public void setup() {
+        final StringBuilder html = new StringBuilder();
+        while (html.length() < contentLength)
+            html.append("<p class=\"body\">Thanks for your order, \"customer\" &amp; friends</p>\n");
+
+        mail = new SendGridMail();
+        mail.setFrom("orders@example.com", "Example Orders");
+        mail.setSubject("Your order has shipped");
+        mail.setContent("Thanks for your order");
+        mail.setHtmlContent(html.toString());
+        for (int i = 0; i < recipients; i++)
+            mail.addRecipient("recipient" + i + "@example.com", "Recipient " + i);
+    }
+
+    @Benchmark
+    public long contentLength() throws IOException {
+        return SendGridMailBody.create(mail).getContentLength();
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        final CountingOutputStream outputStream = new CountingOutputStream();
+        SendGridMailBody.create(mail).writeTo(outputStream);
+        return outputStream.count;
+    }
+
+}
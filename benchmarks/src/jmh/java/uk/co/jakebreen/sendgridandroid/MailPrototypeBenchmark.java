@@ -0,0 +1,66 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing the body of one templated mail to a single recipient, serializing
+ * the whole mail against splicing the recipient into a prototype.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MailPrototypeBenchmark {
+
+    @Param({"1024", "32768"})
+    int contentLength;
+
+    private SendGridMail mail;
+    private SendGridMail recipients;
+    private SendGridMailPrototype prototype;
+
+    @Setup
+    public void setup() {
+        final StringBuilder html = new StringBuilder();
+        while (html.length() < contentLength)
+            html.append("<p class=\"body\">Thanks for your order, \"customer\" &amp; friends</p>\n");
+
+        mail = new SendGridMail();
+        mail.setFrom("orders@example.com", "Example Orders");
+        mail.setSubject("Your order has shipped");
+        mail.setContent("Thanks for your order");
+        mail.setHtmlContent(html.toString());
+        mail.setTemplateId("733ba07f-ead1-41fc-933a-3976baa23716");
+        mail.setClickTracking("enable", true);
+        mail.addRecipient("john.doe@example.com", "John Doe");
+
+        recipients = new SendGridMail();
+        recipients.addRecipient("john.doe@example.com", "John Doe");
+        prototype = SendGridMailPrototype.from(mail);
+    }
+
+    @Benchmark
+    public long wholeMail() throws IOException {
+        final CountingOutputStream outputStream = new CountingOutputStream();
+        SendGridMailBody.create(mail).writeTo(outputStream);
+        return outputStream.count;
+    }
+
+    @Benchmark
+    public long prototype() throws IOException {
+        final CountingOutputStream outputStream = new CountingOutputStream();
+        prototype.createBody(recipients, null).writeTo(outputStream);
+        return outputStream.count;
+    }
+
+}
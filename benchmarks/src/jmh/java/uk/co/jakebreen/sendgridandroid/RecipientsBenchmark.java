@@ -0,0 +1,60 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a mail with 1000 recipients, carbon copies and blind carbon
+ * copies, one at a time and in bulk. Run with {@code -prof gc} to compare allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecipientsBenchmark {
+
+    private static final int RECIPIENTS = 1000;
+
+    private String[] emails;
+    private String[] names;
+    private Map<String, String> bulk;
+
+    @Setup
+    public void setup() {
+        emails = new String[RECIPIENTS];
+        names = new String[RECIPIENTS];
+        bulk = new LinkedHashMap<>();
+        for (int i = 0; i < RECIPIENTS; i++) {
+            emails[i] = "recipient" + i + "@example.com";
+            names[i] = "Recipient " + i;
+            bulk.put(emails[i], names[i]);
+        }
+    }
+
+    @Benchmark
+    public SendGridMail addOneAtATime() {
+        final SendGridMail mail = new SendGridMail();
+        for (int i = 0; i < RECIPIENTS; i++) {
+            mail.addRecipient(emails[i], names[i]);
+            mail.addRecipientCarbonCopy(emails[i], names[i]);
+            mail.addRecipientBlindCarbonCopy(emails[i], names[i]);
+        }
+        return mail;
+    }
+
+    @Benchmark
+    public SendGridMail addInBulk() {
+        final SendGridMail mail = new SendGridMail();
+        mail.addRecipients(bulk);
+        return mail;
+    }
+
+}
@@ -0,0 +1,48 @@
+package uk.co.jakebreen.sendgridandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole send through {@link SendGridCall} against a local HTTPS server on a kept-alive
+ * connection: measuring and writing the body, the exchange and reading the response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundTripBenchmark {
+
+    private LocalHttpsServer server;
+    private SendGridCall api;
+    private SendGridMail mail;
+
+    @Setup
+    public void setup() throws Exception {
+        server = LocalHttpsServer.start(false);
+        api = new SendGridCall(server.getUrl(), server.getClientSocketFactory());
+        mail = new SendGridMail();
+        mail.setFrom("orders@example.com", "Example Orders");
+        mail.setSubject("Your order has shipped");
+        mail.setContent("Thanks for your order");
+        mail.addRecipient("john.doe@example.com", "John Doe");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Benchmark
+    public SendGridResponse send() throws Exception {
+        return api.call("mail/send", "Bearer api_key", SendGridMailBody.create(mail)).call();
+    }
+
+}